@@ -0,0 +1,245 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static gitlet.Utils.*;
+
+/** The files of a commit written as a tar or zip archive, straight from the
+ *  object store and without touching the working directory. Files go into
+ *  the archive in path order. A few files ahead of the writer, blobs are
+ *  read in parallel; blobs too large to hold in memory are streamed from
+ *  their files when their turn comes, so memory use does not grow with the
+ *  commit. A large-file pointer is replaced by the contents it points to
+ *  when the large-file store has them.
+ *  @author Evelyn
+ */
+class Archive {
+    /** Blobs up to this size are read ahead whole; larger ones streamed. */
+    private static final int PREFETCH_LIMIT = 1 << 20;
+    /** The most blobs read ahead at once, which bounds the memory used. */
+    private static final int MAX_AHEAD = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int BLOCK = 512;
+    /** Tar files are padded to a whole number of records of this size. */
+    private static final int RECORD = 20 * BLOCK;
+    /** The largest size a plain tar header can hold: 11 octal digits. */
+    private static final long MAX_TAR_SIZE = 077777777777L;
+
+    /** The contents of one file: in memory, or in a file to stream. */
+    private static class Contents {
+        final byte[] bytes;
+        final File file;
+
+        Contents(byte[] bytes, File file) {
+            this.bytes = bytes;
+            this.file = file;
+        }
+
+        long size() {
+            return bytes != null ? bytes.length : file.length();
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            if (bytes != null) {
+                out.write(bytes);
+                return;
+            }
+            byte[] buf = new byte[BUFFER_SIZE];
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    out.write(buf, 0, n);
+                    Stats.read(n);
+                }
+            }
+        }
+    }
+
+    /** Writes FILES, a commit's map from paths to blob ids, to OUT as an
+     *  archive of format FORMAT ("tar" or "zip"), every file dated MTIME
+     *  (milliseconds since the epoch). */
+    static void write(Map<String, String> files, long mtime, String format, OutputStream out) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>(new TreeMap<>(files).entrySet());
+        Function<String, Contents> load = GitletRepository.bindFunction(Archive::load);
+        int window = Math.min(2 * Runtime.getRuntime().availableProcessors(), MAX_AHEAD);
+        ArrayDeque<CompletableFuture<Contents>> ahead = new ArrayDeque<>();
+        try {
+            ZipOutputStream zip = format.equals("zip") ? new ZipOutputStream(out) : null;
+            long written = 0;
+            int next = 0;
+            for (Map.Entry<String, String> e : entries) {
+                // 0. Keep WINDOW blobs loading ahead of the writer.
+                while (next < entries.size() && ahead.size() < window) {
+                    String id = entries.get(next).getValue();
+                    ahead.add(CompletableFuture.supplyAsync(() -> load.apply(id)));
+                    next += 1;
+                }
+                Contents contents = await(ahead.poll());
+
+                // 1. Write the entry.
+                if (zip != null) {
+                    ZipEntry entry = new ZipEntry(e.getKey());
+                    entry.setTime(mtime);
+                    zip.putNextEntry(entry);
+                    contents.writeTo(zip);
+                    zip.closeEntry();
+                } else {
+                    written += writeTarEntry(out, e.getKey(), contents, mtime);
+                }
+            }
+            if (zip != null) {
+                zip.finish();
+            } else {
+                long end = written + 2 * BLOCK;
+                out.write(new byte[(int) (2 * BLOCK + (RECORD - end % RECORD) % RECORD)]);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of blob ID: read whole if small, or the file to
+     *  stream them from. */
+    private static Contents load(String id) {
+        File blob = join(Repository.objectsFolder(), id);
+        if (LargeFiles.mayBePointer(blob)) {
+            byte[] bytes = readContents(blob);
+            String large = LargeFiles.pointedTo(bytes);
+            File stored = large == null ? null : join(LargeFiles.store(), large);
+            if (stored == null || !stored.isFile()) {
+                return new Contents(bytes, null);
+            }
+            blob = stored;
+        }
+        if (blob.length() <= PREFETCH_LIMIT) {
+            return new Contents(readContents(blob), null);
+        }
+        return new Contents(null, blob);
+    }
+
+    /** Returns the result of FUTURE, rethrowing what it failed with. */
+    private static Contents await(CompletableFuture<Contents> future) {
+        try {
+            return future.join();
+        } catch (CompletionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw excp;
+        }
+    }
+
+    //======================================================================
+    // Tar
+    //======================================================================
+
+    /** Writes PATH with CONTENTS to the tar stream OUT, preceded by a pax
+     *  header if the path or size does not fit a ustar header. Returns the
+     *  number of bytes written. */
+    private static long writeTarEntry(OutputStream out, String path, Contents contents,
+                                      long mtime) throws IOException {
+        long size = contents.size();
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        String prefix = "";
+        String shortName = path;
+        boolean fits = name.length == path.length() && name.length <= 100;
+        if (!fits && name.length == path.length() && name.length <= 256) {
+            int slash = path.lastIndexOf('/', 155);
+            if (slash > 0 && path.length() - slash - 1 <= 100) {
+                prefix = path.substring(0, slash);
+                shortName = path.substring(slash + 1);
+                fits = true;
+            }
+        }
+        long written = 0;
+        if (!fits || size > MAX_TAR_SIZE) {
+            StringBuilder pax = new StringBuilder();
+            if (!fits) {
+                pax.append(paxRecord("path", path));
+                shortName = truncate(path);
+                prefix = "";
+            }
+            if (size > MAX_TAR_SIZE) {
+                pax.append(paxRecord("size", Long.toString(size)));
+            }
+            byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(header("PaxHeader/" + truncate(shortName), "", records.length, mtime, 'x'));
+            out.write(records);
+            out.write(new byte[pad(records.length)]);
+            written += BLOCK + records.length + pad(records.length);
+        }
+        out.write(header(shortName, prefix, Math.min(size, MAX_TAR_SIZE), mtime, '0'));
+        contents.writeTo(out);
+        out.write(new byte[pad(size)]);
+        return written + BLOCK + size + pad(size);
+    }
+
+    /** Returns a ustar header block. */
+    private static byte[] header(String name, String prefix, long size, long mtime, char type) {
+        byte[] h = new byte[BLOCK];
+        put(h, 0, 100, name);
+        put(h, 100, 8, octal(0644, 7));
+        put(h, 108, 8, octal(0, 7));
+        put(h, 116, 8, octal(0, 7));
+        put(h, 124, 12, octal(size, 11));
+        put(h, 136, 12, octal(Math.max(mtime / 1000, 0), 11));
+        put(h, 148, 8, "        ");
+        h[156] = (byte) type;
+        put(h, 257, 6, "ustar");
+        put(h, 263, 2, "00");
+        put(h, 345, 155, prefix);
+        int sum = 0;
+        for (byte b : h) {
+            sum += b & 0xff;
+        }
+        put(h, 148, 8, octal(sum, 6) + "\0 ");
+        return h;
+    }
+
+    /** Returns a pax record setting KEY to VALUE. Its length counts the
+     *  digits of the length itself. */
+    private static String paxRecord(String key, String value) {
+        int body = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = body + Integer.toString(body).length();
+        if (Integer.toString(length).length() > Integer.toString(body).length()) {
+            length += 1;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    /** Returns the last 100 ASCII characters of PATH, for the name field of
+     *  an entry whose real path is in a pax header. */
+    private static String truncate(String path) {
+        String ascii = path.replaceAll("[^\\x20-\\x7e]", "_");
+        return ascii.length() <= 100 ? ascii : ascii.substring(ascii.length() - 100);
+    }
+
+    private static String octal(long value, int digits) {
+        String s = Long.toOctalString(value);
+        return "0".repeat(Math.max(digits - s.length(), 0)) + s;
+    }
+
+    private static void put(byte[] h, int offset, int length, String value) {
+        byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(b, 0, h, offset, Math.min(b.length, length));
+    }
+
+    private static int pad(long size) {
+        return (int) ((BLOCK - size % BLOCK) % BLOCK);
+    }
+}
@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** A compressed set of non-negative ints, split Roaring-style into chunks of
+ *  65536 values by their high 16 bits. A chunk holds a sorted array of its
+ *  low 16 bits while it has at most {@value #ARRAY_LIMIT} values, and a
+ *  65536-bit set once it has more. Sparse sets stay small and dense ones
+ *  (like the ancestors of a commit, as commit-graph positions) cost one bit
+ *  per value.
+ *  @author Evelyn
+ */
+class Bitmap {
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int WORDS = 1024;
+    private static final byte ARRAY = 0;
+    private static final byte BITS = 1;
+
+    /** The chunks, sorted by key. */
+    private final ArrayList<Chunk> chunks = new ArrayList<>();
+
+    /** Adds VALUE. */
+    void add(int value) {
+        chunk(value >>> 16, true).add((char) value);
+    }
+
+    /** Returns true if VALUE is in this set. */
+    boolean contains(int value) {
+        Chunk c = chunk(value >>> 16, false);
+        return c != null && c.contains((char) value);
+    }
+
+    /** Adds every value in OTHER. */
+    void or(Bitmap other) {
+        for (Chunk o : other.chunks) {
+            chunk(o.key, true).or(o);
+        }
+    }
+
+    /** Returns the number of values. */
+    int cardinality() {
+        int n = 0;
+        for (Chunk c : chunks) {
+            n += c.cardinality;
+        }
+        return n;
+    }
+
+    /** Calls ACTION on each value, in increasing order. */
+    void forEach(IntConsumer action) {
+        for (Chunk c : chunks) {
+            int high = c.key << 16;
+            if (c.bits == null) {
+                for (int i = 0; i < c.cardinality; i += 1) {
+                    action.accept(high | c.array[i]);
+                }
+            } else {
+                for (int w = 0; w < WORDS; w += 1) {
+                    for (long word = c.bits[w]; word != 0; word &= word - 1) {
+                        action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            }
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(chunks.size());
+        for (Chunk c : chunks) {
+            out.writeChar(c.key);
+            if (c.bits == null) {
+                out.writeByte(ARRAY);
+                out.writeShort(c.cardinality - 1);
+                for (int i = 0; i < c.cardinality; i += 1) {
+                    out.writeChar(c.array[i]);
+                }
+            } else {
+                out.writeByte(BITS);
+                for (long word : c.bits) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    static Bitmap read(DataInputStream in) throws IOException {
+        Bitmap b = new Bitmap();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            Chunk c = new Chunk(in.readChar());
+            if (in.readByte() == ARRAY) {
+                c.cardinality = (in.readShort() & 0xffff) + 1;
+                c.array = new char[c.cardinality];
+                for (int i = 0; i < c.cardinality; i += 1) {
+                    c.array[i] = in.readChar();
+                }
+            } else {
+                c.bits = new long[WORDS];
+                for (int i = 0; i < WORDS; i += 1) {
+                    c.bits[i] = in.readLong();
+                    c.cardinality += Long.bitCount(c.bits[i]);
+                }
+            }
+            b.chunks.add(c);
+        }
+        return b;
+    }
+
+    /** Returns the chunk for KEY, creating it if CREATE, or else null if
+     *  there is none. */
+    private Chunk chunk(int key, boolean create) {
+        int lo = 0;
+        int hi = chunks.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int k = chunks.get(mid).key;
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return chunks.get(mid);
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        Chunk c = new Chunk(key);
+        chunks.add(lo, c);
+        return c;
+    }
+
+    /** The values sharing one high 16 bits. */
+    private static class Chunk {
+        final int key;
+        /** Sorted low bits, while bits is null. */
+        char[] array = new char[4];
+        long[] bits;
+        int cardinality;
+
+        Chunk(int key) {
+            this.key = key;
+        }
+
+        boolean contains(char low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+        }
+
+        void add(char low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) == 0) {
+                    bits[low >>> 6] |= mask;
+                    cardinality += 1;
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, cardinality, low);
+            if (i >= 0) {
+                return;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                toBits();
+                add(low);
+                return;
+            }
+            i = -i - 1;
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, cardinality * 2));
+            }
+            System.arraycopy(array, i, array, i + 1, cardinality - i);
+            array[i] = low;
+            cardinality += 1;
+        }
+
+        void or(Chunk other) {
+            if (bits == null && other.bits == null
+                    && cardinality + other.cardinality <= ARRAY_LIMIT) {
+                char[] merged = new char[Math.max(4, cardinality + other.cardinality)];
+                int i = 0;
+                int j = 0;
+                int n = 0;
+                while (i < cardinality || j < other.cardinality) {
+                    if (j == other.cardinality
+                            || i < cardinality && array[i] < other.array[j]) {
+                        merged[n++] = array[i++];
+                    } else if (i == cardinality || other.array[j] < array[i]) {
+                        merged[n++] = other.array[j++];
+                    } else {
+                        merged[n++] = array[i++];
+                        j += 1;
+                    }
+                }
+                array = merged;
+                cardinality = n;
+                return;
+            }
+            if (bits == null) {
+                toBits();
+            }
+            if (other.bits == null) {
+                for (int i = 0; i < other.cardinality; i += 1) {
+                    add(other.array[i]);
+                }
+                return;
+            }
+            cardinality = 0;
+            for (int w = 0; w < WORDS; w += 1) {
+                bits[w] |= other.bits[w];
+                cardinality += Long.bitCount(bits[w]);
+            }
+        }
+
+        private void toBits() {
+            bits = new long[WORDS];
+            for (int i = 0; i < cardinality; i += 1) {
+                bits[array[i] >>> 6] |= 1L << array[i];
+            }
+            array = null;
+        }
+    }
+}
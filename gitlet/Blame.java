@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Line-by-line attribution of a file to the commits that last changed each
+ *  line. History is walked backwards, one version of the file at a time,
+ *  and line origins are carried forward across the diff between
+ *  consecutive versions.
+ *
+ *  Each result is cached in .gitlet/blame under the pair (blob id, id of the
+ *  commit that introduced that blob). The walk stops at the first cached
+ *  version, so after a new commit only the versions since the last blame
+ *  are diffed. Only first parents are followed, so lines brought in by a
+ *  merge are attributed to the merge commit.
+ *  @author Evelyn
+ */
+class Blame {
+    static File cacheFolder() {
+        return join(Repository.gitletDir(), "blame");
+    }
+
+    /** Returns, for each line of PATH as of commit HEAD, the id of the commit
+     *  that introduced it, or null if HEAD does not have PATH. */
+    static String[] annotate(String head, String path) {
+        if (Commit.readCommit(head).getFiles().get(path) == null) {
+            return null;
+        }
+        CommitGraph graph = CommitGraph.load();
+
+        // 0. Walk back over the versions of PATH until one is cached or the
+        // file first appears.
+        List<String> commits = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        String[] known = null;
+        String c = Repository.nextChange(graph, head, path);
+        while (true) {
+            String blob = Commit.readCommit(c).getFiles().get(path);
+            commits.add(c);
+            blobs.add(blob);
+            known = readCache(blob, c);
+            if (known != null) {
+                break;
+            }
+            String parent = Repository.firstParent(graph, c);
+            if (parent == null || Commit.readCommit(parent).getFiles().get(path) == null) {
+                break;
+            }
+            c = Repository.nextChange(graph, parent, path);
+        }
+
+        // 1. The oldest version: cached, or every line is its own commit's.
+        int last = commits.size() - 1;
+        Diff.Text text = Diff.Text.of(readContents(join(Repository.objectsFolder(),
+                blobs.get(last))));
+        String[] lines = known;
+        if (lines == null) {
+            lines = new String[text.size()];
+            Arrays.fill(lines, commits.get(last));
+            writeCache(blobs.get(last), commits.get(last), lines);
+        }
+
+        // 2. Carry origins forward to each newer version.
+        for (int i = last - 1; i >= 0; i -= 1) {
+            Diff.Text newer = Diff.Text.of(readContents(join(Repository.objectsFolder(),
+                    blobs.get(i))));
+            String[] next = new String[newer.size()];
+            int a = 0;
+            int b = 0;
+            for (Diff.Edit e : Diff.edits(text, newer)) {
+                while (b < e.beginB) {
+                    next[b++] = lines[a++];
+                }
+                while (b < e.endB) {
+                    next[b++] = commits.get(i);
+                }
+                a = e.endA;
+            }
+            while (b < next.length) {
+                next[b++] = lines[a++];
+            }
+            writeCache(blobs.get(i), commits.get(i), next);
+            text = newer;
+            lines = next;
+        }
+        return lines;
+    }
+
+    private static File cacheFile(String blob, String commit) {
+        return join(cacheFolder(), sha1(blob, commit));
+    }
+
+    private static String[] readCache(String blob, String commit) {
+        File f = cacheFile(blob, commit);
+        if (!f.isFile()) {
+            return null;
+        }
+        return readObject(f, String[].class);
+    }
+
+    /** Writes the cache entry through a temporary file and a rename, since
+     *  blame runs under the shared lock and others may be reading it. */
+    private static void writeCache(String blob, String commit, String[] lines) {
+        Transaction tx = new Transaction(Repository.gitletDir(), Transaction.Durability.NONE);
+        tx.writeObject(cacheFile(blob, commit), lines);
+        tx.commit();
+    }
+}
@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static gitlet.Utils.*;
+
+/** A file carrying part of a repository's history for offline transfer.
+ *  It starts with a small header naming the commits the receiver must
+ *  already have (prerequisites) and the branches it carries, followed by a
+ *  pack of the objects (see {@link Pack}), optionally gzip-compressed. The
+ *  pack is written in one sequential pass and ends in a checksum.
+ *  @author Evelyn
+ */
+class Bundle {
+    private static final String MAGIC = "GITLETBUNDLE";
+    private static final int VERSION = 2;
+
+    /** Commits the receiving repository must have before unbundling. */
+    final List<String> prerequisites = new ArrayList<>();
+    /** Branch names carried by the bundle, mapped to their head commits. */
+    final LinkedHashMap<String, String> refs = new LinkedHashMap<>();
+    /** The name of the object format of the bundled objects. */
+    String format;
+    /** Whether the pack is gzip-compressed. */
+    boolean compressed;
+
+    /** The stream positioned at the pack, while reading a bundle. */
+    private InputStream packStream;
+
+    /** Writes this bundle to FILE, with the objects in PLAN read from the
+     *  .gitlet directory SRC. */
+    void write(File file, File src, Pack.Plan plan) {
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()))) {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeUTF(MAGIC);
+            header.writeInt(VERSION);
+            header.writeUTF(format);
+            header.writeBoolean(compressed);
+            header.writeInt(prerequisites.size());
+            for (String id : prerequisites) {
+                header.writeUTF(id);
+            }
+            header.writeInt(refs.size());
+            for (String name : refs.keySet()) {
+                header.writeUTF(name);
+                header.writeUTF(refs.get(name));
+            }
+            header.flush();
+            if (compressed) {
+                GZIPOutputStream gzip = new GZIPOutputStream(out, 1 << 16);
+                Pack.write(gzip, src, plan);
+                gzip.finish();
+            } else {
+                Pack.write(out, src, plan);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Opens the bundle FILE and reads its header. Returns null if FILE is
+     *  not a bundle. The caller must finish with {@link #readObjects} or
+     *  {@link #close}. */
+    static Bundle open(File file) {
+        Bundle b = new Bundle();
+        try {
+            InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()));
+            b.packStream = in;
+            DataInputStream header = new DataInputStream(in);
+            if (!MAGIC.equals(header.readUTF()) || header.readInt() != VERSION) {
+                b.close();
+                return null;
+            }
+            b.format = header.readUTF();
+            b.compressed = header.readBoolean();
+            for (int n = header.readInt(); n > 0; n -= 1) {
+                b.prerequisites.add(header.readUTF());
+            }
+            for (int n = header.readInt(); n > 0; n -= 1) {
+                b.refs.put(header.readUTF(), header.readUTF());
+            }
+            if (b.compressed) {
+                b.packStream = new GZIPInputStream(in, 1 << 16);
+            }
+            return b;
+        } catch (IOException excp) {
+            b.close();
+            return null;
+        }
+    }
+
+    /** Streams the bundled objects into the .gitlet directory DST as part of
+     *  TX, checking each one as it arrives, and closes the bundle. Returns the
+     *  number of objects read. */
+    int readObjects(File dst, Transaction tx) {
+        try {
+            return Pack.read(packStream, dst, tx);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    void close() {
+        try {
+            if (packStream != null) {
+                packStream.close();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
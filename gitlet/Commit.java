@@ -1,6 +1,9 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -11,9 +14,15 @@ import static gitlet.Utils.*;
  *  @author Evelyn
  */
 public class Commit implements Serializable {
+    /** Fixed to the value the class had when repositories were first
+     *  written, so that adding methods does not make stored commits
+     *  unreadable. */
+    private static final long serialVersionUID = -5342401520124827254L;
+
     /** The commits directory. */
-    static final File OBJECTS_FOLDER = join(Repository.GITLET_DIR, "objects");
-    static final File COMMITS_FOLDER = join(OBJECTS_FOLDER, "commits");
+    static File commitsFolder() {
+        return join(Repository.objectsFolder(), "commits");
+    }
 
     /** The time this Commit is created. */
     private String timestamp;
@@ -53,24 +62,86 @@ public class Commit implements Serializable {
     }
 
     public String persistCommit() {
-        String id = sha1(serialize(this));
-        File f = new File(COMMITS_FOLDER, id);
-        writeObject(f, this);
+        Transaction tx = new Transaction();
+        String id = persistCommit(tx);
+        tx.commit();
+        return id;
+    }
+
+    /** Saves this commit as part of TX and returns its id. */
+    public String persistCommit(Transaction tx) {
+        byte[] contents = serialize(this);
+        String id = hashObject(contents);
+        File f = new File(commitsFolder(), id);
+        if (!f.exists() && !PackedCommits.load(Repository.gitletDir()).contains(id)) {
+            tx.write(f, (Object) contents);
+        }
         return id;
     }
 
     public static String getCurrentCommitId() {
-        String head = readContentsAsString(join(Repository.GITLET_DIR, "HEAD"));
-        if (head.length() < UID_LENGTH) {
-            String activeBranch = Repository.getActiveBranch();
-            head = readContentsAsString(join(Repository.HEADS_FOLDER, activeBranch));
+        RefTable refs = Repository.refs();
+        String head = refs.get(RefTable.HEAD);
+        if (head.startsWith("refs")) {
+            head = refs.get(head);
         }
         return head;
     }
 
     public static Commit readCommit(String commitId) {
-        File f = new File(COMMITS_FOLDER, commitId);
-        return readObject(f, Commit.class);
+        return read(Repository.gitletDir(), commitId);
+    }
+
+    /** Returns commit ID of the repository whose .gitlet directory is
+     *  GITLETDIR, loose or packed. */
+    static Commit read(File gitletDir, String id) {
+        return deserialize(readBytes(gitletDir, id));
+    }
+
+    /** Returns the commit serialized as CONTENTS. */
+    static Commit deserialize(byte[] contents) {
+        Stats.commitRead();
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(contents))) {
+            return (Commit) in.readObject();
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the serialized commit ID of the repository whose .gitlet
+     *  directory is GITLETDIR. A loose commit may be packed and deleted while
+     *  it is read, in which case it is read from the new pack. */
+    static byte[] readBytes(File gitletDir, String id) {
+        File f = join(gitletDir, "objects", "commits", id);
+        if (f.isFile()) {
+            try {
+                return readContents(f);
+            } catch (IllegalArgumentException excp) {
+                // Packed meanwhile.
+            }
+        }
+        byte[] contents = PackedCommits.load(gitletDir).read(id);
+        if (contents == null) {
+            contents = PackedCommits.read(PackedCommits.packFolder(gitletDir)).read(id);
+        }
+        if (contents == null) {
+            throw new IllegalArgumentException("No commit " + id);
+        }
+        return contents;
+    }
+
+    /** Returns true if the repository whose .gitlet directory is GITLETDIR
+     *  has commit ID. */
+    static boolean exists(File gitletDir, String id) {
+        return join(gitletDir, "objects", "commits", id).isFile()
+                || PackedCommits.load(gitletDir).contains(id);
+    }
+
+    /** Returns the ids of every commit of the current repository, sorted. */
+    static TreeSet<String> allIds() {
+        TreeSet<String> ids = new TreeSet<>(plainFilenamesIn(commitsFolder()));
+        PackedCommits.load(Repository.gitletDir()).addIds(ids);
+        return ids;
     }
 
     public String toString() {
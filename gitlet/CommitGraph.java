@@ -0,0 +1,369 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static gitlet.Utils.*;
+
+/** A compact, read-only summary of the commits in a repository, kept in
+ *  .gitlet/objects/info/commit-graph. For each commit it stores its parents
+ *  (as positions in the graph), its generation number and a Bloom filter of
+ *  the paths it changed relative to its first parent. Walks that only need
+ *  this information can skip deserializing commits altogether.
+ *
+ *  The graph is written on demand and does not cover commits made since;
+ *  callers must fall back to reading those commits.
+ *  @author Evelyn
+ */
+class CommitGraph {
+    static File graphPath() {
+        return join(Repository.objectsFolder(), "info", "commit-graph");
+    }
+
+    private static final String MAGIC = "GITLETGRAPH";
+    private static final int VERSION = 1;
+    /** Bloom filter bits per changed path. */
+    private static final int BITS_PER_PATH = 10;
+    /** Number of bit positions set per path. */
+    private static final int BLOOM_HASHES = 7;
+    /** Commits changing more paths than this get no filter. */
+    private static final int MAX_BLOOM_PATHS = 512;
+    /** Marks a commit with no filter; every path may have changed. */
+    private static final byte[] NO_FILTER = null;
+
+    /** Commit ids, sorted, so a position is found by binary search. */
+    private final ObjectId[] ids;
+    /** The positions of the parents of each commit, first parent first. */
+    private final int[][] parents;
+    /** 1 for root commits, otherwise one more than the largest parent's. */
+    private final int[] generations;
+    /** Changed-path filters, or NO_FILTER. */
+    private final byte[][] blooms;
+    /** The checksum at the end of the file, which identifies this graph. */
+    private final byte[] checksum;
+
+    private CommitGraph(ObjectId[] ids, int[][] parents, int[] generations, byte[][] blooms,
+                        byte[] checksum) {
+        this.ids = ids;
+        this.parents = parents;
+        this.generations = generations;
+        this.blooms = blooms;
+        this.checksum = checksum;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Returns the position of commit ID, or -1 if the graph lacks it. */
+    int position(String id) {
+        ObjectId oid = ObjectId.fromHex(id);
+        if (oid == null) {
+            return -1;
+        }
+        int pos = Arrays.binarySearch(ids, oid);
+        return pos >= 0 ? pos : -1;
+    }
+
+    /** Returns the id of the commit at POS. */
+    String id(int pos) {
+        return ids[pos].hex();
+    }
+
+    /** Returns the parent positions of the commit at POS. */
+    int[] parents(int pos) {
+        return parents[pos];
+    }
+
+    /** Returns the checksum of the graph file. Files that refer to positions
+     *  in the graph record it to detect a rewritten graph. */
+    byte[] checksum() {
+        return checksum.clone();
+    }
+
+    /** Returns the generation number of the commit at POS. */
+    int generation(int pos) {
+        return generations[pos];
+    }
+
+    /** Returns false if the commit at POS certainly did not change PATH
+     *  relative to its first parent, and true if it may have. */
+    boolean maybeChanged(int pos, String path) {
+        byte[] bloom = blooms[pos];
+        if (bloom == NO_FILTER) {
+            return true;
+        }
+        if (bloom.length == 0) {
+            return false;
+        }
+        long h = pathHash(path);
+        int bits = bloom.length * 8;
+        for (int i = 0; i < BLOOM_HASHES; i += 1) {
+            int bit = Math.floorMod((int) h + i * (int) (h >>> 32), bits);
+            if ((bloom[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //======================================================================
+    // Reading
+    //======================================================================
+
+    /** Returns the graph of the current repository, or null if it has not
+     *  been written or cannot be used. */
+    static CommitGraph load() {
+        return GitletRepository.current().cached(graphPath(), CommitGraph::read);
+    }
+
+    /** Returns the number of commits the graph file says it holds, reading
+     *  only its header, or 0 if there is no graph. */
+    static int storedSize() {
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(graphPath().toPath()))) {
+            in.readUTF();
+            in.readInt();
+            in.readUTF();
+            return in.readInt();
+        } catch (IOException excp) {
+            return 0;
+        }
+    }
+
+    private static CommitGraph read() {
+        if (!graphPath().isFile()) {
+            return null;
+        }
+        ObjectFormat format = ObjectFormat.current();
+        byte[] data = readContents(graphPath());
+        MessageDigest md = format.newDigest();
+        int bodyLength = data.length - format.rawLength();
+        if (bodyLength < 0) {
+            return null;
+        }
+        md.update(data, 0, bodyLength);
+        byte[] checksum = Arrays.copyOfRange(data, bodyLength, data.length);
+        if (!Arrays.equals(md.digest(), checksum)) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data, 0, bodyLength);
+            if (!MAGIC.equals(readString(in)) || in.getInt() != VERSION
+                    || !format.formatName().equals(readString(in))) {
+                return null;
+            }
+            int n = in.getInt();
+            ObjectId[] ids = new ObjectId[n];
+            int[][] parents = new int[n][];
+            int[] generations = new int[n];
+            byte[][] blooms = new byte[n][];
+            for (int i = 0; i < n; i += 1) {
+                byte[] raw = new byte[format.rawLength()];
+                in.get(raw);
+                ids[i] = ObjectId.fromRaw(raw);
+            }
+            for (int i = 0; i < n; i += 1) {
+                parents[i] = new int[in.get()];
+                for (int j = 0; j < parents[i].length; j += 1) {
+                    parents[i][j] = in.getInt();
+                }
+                generations[i] = in.getInt();
+                int bloomLength = in.getInt();
+                if (bloomLength >= 0) {
+                    blooms[i] = new byte[bloomLength];
+                    in.get(blooms[i]);
+                }
+            }
+            return new CommitGraph(ids, parents, generations, blooms, checksum);
+        } catch (BufferUnderflowException excp) {
+            return null;
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] b = new byte[in.getShort() & 0xffff];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    //======================================================================
+    // Writing
+    //======================================================================
+
+    /** Writes a graph of every commit in the repository, reusing the entries
+     *  of the existing graph so that only new commits are read. Returns the
+     *  number of commits in the new graph. */
+    static int write() {
+        CommitGraph old = load();
+        List<String> all = new ArrayList<>(Commit.allIds());
+        int n = all.size();
+        ObjectFormat format = ObjectFormat.current();
+
+        // 0. Sort the ids; their order fixes the positions.
+        ObjectId[] ids = new ObjectId[n];
+        for (int i = 0; i < n; i += 1) {
+            ids[i] = ObjectId.fromHex(all.get(i));
+        }
+        Arrays.sort(ids);
+        HashMap<ObjectId, Integer> positions = new HashMap<>();
+        for (int i = 0; i < n; i += 1) {
+            positions.put(ids[i], i);
+        }
+
+        // 1. Parents and filters: copied from the old graph when it has the
+        // commit, computed otherwise.
+        int[][] parents = new int[n][];
+        byte[][] blooms = new byte[n][];
+        for (int i = 0; i < n; i += 1) {
+            String id = ids[i].hex();
+            int oldPos = old == null ? -1 : old.position(id);
+            if (oldPos >= 0) {
+                int[] oldParents = old.parents(oldPos);
+                parents[i] = new int[oldParents.length];
+                for (int j = 0; j < oldParents.length; j += 1) {
+                    parents[i][j] = positions.get(old.ids[oldParents[j]]);
+                }
+                blooms[i] = old.blooms[oldPos];
+                continue;
+            }
+            Commit c = Commit.readCommit(id);
+            List<String> ps = c.getParents();
+            parents[i] = new int[ps.size()];
+            for (int j = 0; j < ps.size(); j += 1) {
+                parents[i][j] = positions.get(ObjectId.fromHex(ps.get(j)));
+            }
+            Map<String, String> before = ps.isEmpty()
+                    ? new HashMap<>() : Commit.readCommit(ps.get(0)).getFiles();
+            blooms[i] = bloom(changedPaths(before, c.getFiles()));
+        }
+
+        // 2. Generation numbers, parents before children.
+        int[] generations = new int[n];
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        for (int start = 0; start < n; start += 1) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                int v = stack.peek();
+                if (generations[v] > 0) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                int gen = 1;
+                for (int p : parents[v]) {
+                    if (generations[p] == 0) {
+                        stack.push(p);
+                        ready = false;
+                    } else {
+                        gen = Math.max(gen, generations[p] + 1);
+                    }
+                }
+                if (ready) {
+                    generations[v] = gen;
+                    stack.pop();
+                }
+            }
+        }
+
+        // 3. Serialize, checksum and move into place.
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(format.formatName());
+            out.writeInt(n);
+            for (ObjectId id : ids) {
+                out.write(id.toRaw());
+            }
+            for (int i = 0; i < n; i += 1) {
+                out.writeByte(parents[i].length);
+                for (int p : parents[i]) {
+                    out.writeInt(p);
+                }
+                out.writeInt(generations[i]);
+                if (blooms[i] == NO_FILTER) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(blooms[i].length);
+                    out.write(blooms[i]);
+                }
+            }
+            out.flush();
+            byte[] body = bytes.toByteArray();
+            Transaction tx = new Transaction();
+            tx.write(graphPath(), body, format.hash(body).toRaw());
+            tx.commit();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return n;
+    }
+
+    /** Returns the paths whose blobs differ between BEFORE and AFTER, plus the
+     *  directories containing them. */
+    static HashSet<String> changedPaths(Map<String, String> before, Map<String, String> after) {
+        HashSet<String> changed = new HashSet<>();
+        for (String f : after.keySet()) {
+            if (!Objects.equals(before.get(f), after.get(f))) {
+                changed.add(f);
+            }
+        }
+        for (String f : before.keySet()) {
+            if (!after.containsKey(f)) {
+                changed.add(f);
+            }
+        }
+        for (String f : new ArrayList<>(changed)) {
+            for (int i = f.indexOf('/'); i > 0; i = f.indexOf('/', i + 1)) {
+                changed.add(f.substring(0, i));
+            }
+        }
+        return changed;
+    }
+
+    /** Returns a Bloom filter of PATHS, or NO_FILTER if there are too many. */
+    private static byte[] bloom(HashSet<String> paths) {
+        if (paths.size() > MAX_BLOOM_PATHS) {
+            return NO_FILTER;
+        }
+        byte[] bloom = new byte[(paths.size() * BITS_PER_PATH + 7) / 8];
+        int bits = bloom.length * 8;
+        for (String path : paths) {
+            long h = pathHash(path);
+            for (int i = 0; i < BLOOM_HASHES; i += 1) {
+                int bit = Math.floorMod((int) h + i * (int) (h >>> 32), bits);
+                bloom[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return bloom;
+    }
+
+    /** A 64-bit hash of PATH; its two halves seed the filter positions. */
+    private static long pathHash(String path) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        return h ^ (h >>> 33);
+    }
+}
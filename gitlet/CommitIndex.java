@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** The id, parents, date and message of every commit, in one file at
+ *  .gitlet/objects/info/commit-index, so that log, global-log and find
+ *  print history without deserializing each commit and its file map.
+ *
+ *  Like the commit graph, the index is written on demand (by maintenance)
+ *  and does not cover commits made since; callers read those commits.
+ *  @author Evelyn
+ */
+class CommitIndex {
+    static File indexPath() {
+        return join(Repository.objectsFolder(), "info", "commit-index");
+    }
+
+    private static final String MAGIC = "GITLETINDEX";
+    private static final int VERSION = 1;
+
+    /** The entries, by commit id. */
+    private final HashMap<String, CommitInfo> entries;
+
+    private CommitIndex(HashMap<String, CommitInfo> entries) {
+        this.entries = entries;
+    }
+
+    /** Returns the number of commits in the index. */
+    int size() {
+        return entries.size();
+    }
+
+    /** Returns true if the index covers commit ID. */
+    boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    /** Returns commit ID as a log shows it, from INDEX (which may be null)
+     *  if it covers ID and read from the commit otherwise. */
+    static CommitInfo info(CommitIndex index, String id) {
+        CommitInfo info = index == null ? null : index.entries.get(id);
+        return info != null ? info : new CommitInfo(id, Commit.readCommit(id));
+    }
+
+    /** Returns the index of the current repository, or null if it has not
+     *  been written or cannot be used. */
+    static CommitIndex load() {
+        return GitletRepository.current().cached(indexPath(), CommitIndex::read);
+    }
+
+    /** Returns the number of commits the index file says it holds, reading
+     *  only its header, or 0 if there is no index. */
+    static int storedSize() {
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(indexPath().toPath()))) {
+            in.readUTF();
+            in.readInt();
+            in.readUTF();
+            return in.readInt();
+        } catch (IOException excp) {
+            return 0;
+        }
+    }
+
+    private static CommitIndex read() {
+        if (!indexPath().isFile()) {
+            return null;
+        }
+        ObjectFormat format = ObjectFormat.current();
+        byte[] data = readContents(indexPath());
+        int bodyLength = data.length - format.rawLength();
+        if (bodyLength < 0) {
+            return null;
+        }
+        MessageDigest md = format.newDigest();
+        md.update(data, 0, bodyLength);
+        if (!Arrays.equals(md.digest(), Arrays.copyOfRange(data, bodyLength, data.length))) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data, 0, bodyLength);
+            if (!MAGIC.equals(readString(in, in.getShort() & 0xffff)) || in.getInt() != VERSION
+                    || !format.formatName().equals(readString(in, in.getShort() & 0xffff))) {
+                return null;
+            }
+            int n = in.getInt();
+            HashMap<String, CommitInfo> entries = new HashMap<>();
+            byte[] raw = new byte[format.rawLength()];
+            for (int i = 0; i < n; i += 1) {
+                in.get(raw);
+                String id = ObjectId.toHex(raw);
+                List<String> parents = new ArrayList<>();
+                for (int j = in.get(); j > 0; j -= 1) {
+                    in.get(raw);
+                    parents.add(ObjectId.toHex(raw));
+                }
+                String date = readString(in, in.getShort() & 0xffff);
+                String message = readString(in, in.getInt());
+                entries.put(id, new CommitInfo(id, parents, date, message));
+            }
+            return new CommitIndex(entries);
+        } catch (BufferUnderflowException | IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        byte[] b = new byte[length];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** Writes an index of every commit in the repository, reusing the
+     *  entries of the existing index so that only new commits are read.
+     *  Returns the number of commits in the new index. */
+    static int write() {
+        CommitIndex old = load();
+        ObjectFormat format = ObjectFormat.current();
+        List<String> all = new ArrayList<>(Commit.allIds());
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(format.formatName());
+            out.writeInt(all.size());
+            for (String id : all) {
+                CommitInfo info = info(old, id);
+                out.write(ObjectId.fromHex(id).toRaw());
+                out.writeByte(info.getParents().size());
+                for (String parent : info.getParents()) {
+                    out.write(ObjectId.fromHex(parent).toRaw());
+                }
+                out.writeUTF(info.getDate());
+                byte[] message = info.getMessage().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(message.length);
+                out.write(message);
+            }
+            out.flush();
+            byte[] body = bytes.toByteArray();
+            Transaction tx = new Transaction();
+            tx.write(indexPath(), body, format.hash(body).toRaw());
+            tx.commit();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return all.size();
+    }
+}
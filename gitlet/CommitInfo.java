@@ -0,0 +1,55 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.List;
+
+/** A commit as a log shows it: its id, parents, date and message.
+ *  @author Evelyn
+ */
+public class CommitInfo {
+    private final String id;
+    private final List<String> parents;
+    private final String date;
+    private final String message;
+
+    CommitInfo(String id, Commit commit) {
+        this(id, commit.getParents(), commit.getDate(), commit.getMessage());
+    }
+
+    CommitInfo(String id, List<String> parents, String date, String message) {
+        this.id = id;
+        this.parents = Collections.unmodifiableList(parents);
+        this.date = date;
+        this.message = message;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /** Returns the ids of the parents, first parent first. */
+    public List<String> getParents() {
+        return parents;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /** Returns this commit's entry in the output of log. */
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append("===\n").append("commit ").append(id).append("\n");
+        if (parents.size() >= 2) {
+            str.append("Merge: ").append(parents.get(0), 0, 7).append(" ")
+                    .append(parents.get(1), 0, 7).append("\n");
+        }
+        str.append("Date: ").append(date).append("\n").append(message).append("\n\n");
+        return str.toString();
+    }
+}
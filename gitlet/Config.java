@@ -0,0 +1,108 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/** Repository settings, kept as key=value lines in .gitlet/config.
+ *  @author Evelyn
+ */
+public class Config {
+    static File configPath() {
+        return join(Repository.gitletDir(), "config");
+    }
+
+    /** Minimum similarity, in percent, for merge to pair a deleted file with an
+     *  added one as a rename. */
+    static final String RENAME_THRESHOLD = "merge.renameThreshold";
+
+    /** The settings of one version of the config file, with the values
+     *  parsed from them so far. */
+    private static class Loaded {
+        final Properties properties = new Properties();
+        final ConcurrentHashMap<String, Object> parsed = new ConcurrentHashMap<>();
+    }
+
+    private static Loaded load() {
+        return load(configPath());
+    }
+
+    private static Loaded load(File configFile) {
+        return GitletRepository.current().cached(configFile, () -> read(configFile));
+    }
+
+    private static Loaded read(File configFile) {
+        Loaded loaded = new Loaded();
+        if (configFile.isFile()) {
+            try (InputStream in = new FileInputStream(configFile)) {
+                loaded.properties.load(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return loaded;
+    }
+
+    /** Returns the value of KEY in the repository whose .gitlet directory is
+     *  GITLETDIR, or DEFAULTVALUE if it is not set. */
+    static String get(File gitletDir, String key, String defaultValue) {
+        return load(join(gitletDir, "config")).properties.getProperty(key, defaultValue);
+    }
+
+    /** Returns the value of KEY, or DEFAULTVALUE if it is not set. */
+    static String get(String key, String defaultValue) {
+        return load().properties.getProperty(key, defaultValue);
+    }
+
+    /** Returns PARSE applied to the value of KEY, or null if it is not set.
+     *  The result is kept with the settings, so KEY is parsed again only
+     *  when the config file changes. */
+    @SuppressWarnings("unchecked")
+    static <T> T getParsed(String key, Function<String, T> parse) {
+        Loaded loaded = load();
+        String value = loaded.properties.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+        return (T) loaded.parsed.computeIfAbsent(key, k -> parse.apply(value));
+    }
+
+    /** Returns the value of KEY as an int, or DEFAULTVALUE if it is not set
+     *  or is not a number. */
+    static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, Integer.toString(defaultValue)).trim());
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+
+    /** Sets KEY to VALUE, or removes it if VALUE is null, and saves the file
+     *  through a transaction. The cached settings are left alone; the new
+     *  file replaces them. */
+    static void set(String key, String value) {
+        Properties p = new Properties();
+        p.putAll(load().properties);
+        if (value == null) {
+            p.remove(key);
+        } else {
+            p.setProperty(key, value);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            p.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction tx = new Transaction();
+        tx.write(configPath(), (Object) out.toByteArray());
+        tx.commit();
+    }
+}
@@ -0,0 +1,337 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line-based diff of two file versions, rendered as unified-diff hunks.
+ *  Lines are interned to small integers before the search, so the Myers
+ *  algorithm only ever compares ints. The linear-space (middle snake)
+ *  variant is used, which keeps memory proportional to the file sizes.
+ *  @author Evelyn
+ */
+class Diff {
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+    /** How far into a file we look for a NUL byte to call it binary. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** A region where lines [beginA, endA) of the old text were replaced by
+     *  lines [beginB, endB) of the new text. */
+    static class Edit {
+        final int beginA;
+        final int endA;
+        final int beginB;
+        final int endB;
+
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+    }
+
+    /** The lines of one file version. */
+    static class Text {
+        /** Lines without their terminating newline. */
+        final String[] lines;
+        /** True if the last line is not terminated by a newline. */
+        final boolean missingNewline;
+
+        Text(String[] lines, boolean missingNewline) {
+            this.lines = lines;
+            this.missingNewline = missingNewline;
+        }
+
+        /** Splits CONTENTS, which may be null for an absent file, into lines. */
+        static Text of(byte[] contents) {
+            if (contents == null || contents.length == 0) {
+                return new Text(new String[0], false);
+            }
+            String s = new String(contents, StandardCharsets.UTF_8);
+            ArrayList<String> lines = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i < s.length(); i += 1) {
+                if (s.charAt(i) == '\n') {
+                    lines.add(s.substring(start, i));
+                    start = i + 1;
+                }
+            }
+            boolean missing = start < s.length();
+            if (missing) {
+                lines.add(s.substring(start));
+            }
+            return new Text(lines.toArray(new String[0]), missing);
+        }
+
+        int size() {
+            return lines.length;
+        }
+    }
+
+    /** Returns true if CONTENTS looks like binary data. */
+    static boolean isBinary(byte[] contents) {
+        if (contents == null) {
+            return false;
+        }
+        int n = Math.min(contents.length, BINARY_PROBE);
+        for (int i = 0; i < n; i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //======================================================================
+    // Edit script
+    //======================================================================
+
+    /** Returns the edits turning A into B, in increasing order. */
+    static List<Edit> edits(Text a, Text b) {
+        // 0. Intern every line, so equal lines share an id. The unterminated
+        // last line is kept distinct from the same text with a newline.
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[] ha = intern(a, ids);
+        int[] hb = intern(b, ids);
+
+        // 1. Search, then coalesce edits that touch each other.
+        ArrayList<Edit> raw = new ArrayList<>();
+        diffRange(ha, 0, ha.length, hb, 0, hb.length, raw);
+        ArrayList<Edit> result = new ArrayList<>();
+        for (Edit e : raw) {
+            if (!result.isEmpty()) {
+                Edit last = result.get(result.size() - 1);
+                if (last.endA == e.beginA && last.endB == e.beginB) {
+                    result.set(result.size() - 1,
+                            new Edit(last.beginA, e.endA, last.beginB, e.endB));
+                    continue;
+                }
+            }
+            result.add(e);
+        }
+        return result;
+    }
+
+    private static int[] intern(Text t, HashMap<String, Integer> ids) {
+        int[] h = new int[t.size()];
+        for (int i = 0; i < h.length; i += 1) {
+            String key = t.lines[i];
+            if (t.missingNewline && i == h.length - 1) {
+                key = key + "\0";
+            }
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = ids.size();
+                ids.put(key, id);
+            }
+            h[i] = id;
+        }
+        return h;
+    }
+
+    private static void diffRange(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                  List<Edit> out) {
+        // 0. Strip the common prefix and suffix.
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                out.add(new Edit(aLo, aHi, bLo, bHi));
+            }
+            return;
+        }
+
+        // 1. Split at the middle snake and recurse on both halves.
+        int[] split = middleSnake(a, aLo, aHi, b, bLo, bHi);
+        if (split == null) {
+            out.add(new Edit(aLo, aHi, bLo, bHi));
+            return;
+        }
+        diffRange(a, aLo, split[0], b, bLo, split[1], out);
+        diffRange(a, split[0], aHi, b, split[1], bHi, out);
+    }
+
+    /** Finds a point on an optimal edit path through A[aLo, aHi) and
+     *  B[bLo, bHi) by searching forward and backward at the same time.
+     *  Returns the absolute {x, y} of that point, or null if the two
+     *  ranges share nothing. */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] v1 = new int[length];
+        int[] v2 = new int[length];
+        Arrays.fill(v1, -1);
+        Arrays.fill(v2, -1);
+        v1[offset + 1] = 0;
+        v2[offset + 1] = 0;
+        int delta = n - m;
+        boolean front = (delta % 2) != 0;
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+
+        for (int d = 0; d < maxD; d += 1) {
+            // Forward search.
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1off = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && v1[k1off - 1] < v1[k1off + 1])) {
+                    x1 = v1[k1off + 1];
+                } else {
+                    x1 = v1[k1off - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                v1[k1off] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2off = offset + delta - k1;
+                    if (k2off >= 0 && k2off < length && v2[k2off] != -1) {
+                        if (x1 >= n - v2[k2off]) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+
+            // Backward search.
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2off = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && v2[k2off - 1] < v2[k2off + 1])) {
+                    x2 = v2[k2off + 1];
+                } else {
+                    x2 = v2[k2off - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                v2[k2off] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1off = offset + delta - k2;
+                    if (k1off >= 0 && k1off < length && v1[k1off] != -1) {
+                        int x1 = v1[k1off];
+                        int y1 = offset + x1 - k1off;
+                        if (x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    //======================================================================
+    // Unified output
+    //======================================================================
+
+    /** Returns the unified diff of path NAME between OLDCONTENTS and
+     *  NEWCONTENTS, either of which may be null for an absent file. Returns
+     *  the empty string if the two are identical. */
+    static String unified(String name, byte[] oldContents, byte[] newContents) {
+        StringBuilder str = new StringBuilder();
+        str.append("diff --gitlet a/").append(name).append(" b/").append(name).append("\n");
+        if (oldContents == null) {
+            str.append("new file\n");
+        } else if (newContents == null) {
+            str.append("deleted file\n");
+        }
+        if (isBinary(oldContents) || isBinary(newContents)) {
+            str.append("Binary files ")
+                    .append(oldContents == null ? "/dev/null" : "a/" + name).append(" and ")
+                    .append(newContents == null ? "/dev/null" : "b/" + name)
+                    .append(" differ\n");
+            return str.toString();
+        }
+
+        Text a = Text.of(oldContents);
+        Text b = Text.of(newContents);
+        List<Edit> edits = edits(a, b);
+        if (edits.isEmpty()) {
+            return oldContents == null || newContents == null ? str.toString() : "";
+        }
+        str.append("--- ").append(oldContents == null ? "/dev/null" : "a/" + name).append("\n");
+        str.append("+++ ").append(newContents == null ? "/dev/null" : "b/" + name).append("\n");
+
+        int i = 0;
+        while (i < edits.size()) {
+            // 0. Group edits whose context windows overlap into one hunk.
+            int j = i;
+            while (j + 1 < edits.size()
+                    && edits.get(j + 1).beginA - edits.get(j).endA <= 2 * CONTEXT) {
+                j += 1;
+            }
+            Edit first = edits.get(i);
+            Edit last = edits.get(j);
+            int aStart = Math.max(0, first.beginA - CONTEXT);
+            int bStart = Math.max(0, first.beginB - CONTEXT);
+            int aEnd = Math.min(a.size(), last.endA + CONTEXT);
+            int bEnd = Math.min(b.size(), last.endB + CONTEXT);
+
+            // 1. Hunk header and body.
+            str.append("@@ -").append(range(aStart, aEnd))
+                    .append(" +").append(range(bStart, bEnd)).append(" @@\n");
+            int ai = aStart;
+            for (int k = i; k <= j; k += 1) {
+                Edit e = edits.get(k);
+                for (; ai < e.beginA; ai += 1) {
+                    line(str, ' ', a, ai);
+                }
+                for (int x = e.beginA; x < e.endA; x += 1) {
+                    line(str, '-', a, x);
+                }
+                for (int y = e.beginB; y < e.endB; y += 1) {
+                    line(str, '+', b, y);
+                }
+                ai = e.endA;
+            }
+            for (; ai < aEnd; ai += 1) {
+                line(str, ' ', a, ai);
+            }
+            i = j + 1;
+        }
+        return str.toString();
+    }
+
+    private static String range(int start, int end) {
+        int len = end - start;
+        if (len == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (len == 0 ? start : start + 1) + "," + len;
+    }
+
+    private static void line(StringBuilder str, char tag, Text t, int i) {
+        str.append(tag).append(t.lines[i]).append("\n");
+        if (t.missingNewline && i == t.size() - 1) {
+            str.append("\\ No newline at end of file\n");
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static gitlet.Utils.*;
+
+/** An optional helper process that watches the working directory and
+ *  tells commands which files changed since they last asked, so a scan
+ *  can reuse what it learned last time for every other file.
+ *
+ *  The helper listens on a loopback port, written to .gitlet/fsmonitor.port
+ *  with a random key; only the owner can read that file. Every request starts
+ *  with the key, and the helper drops connections without it, so other local
+ *  users cannot stop it or read the file list. It also drops a client that
+ *  sends nothing for a while. A client sends the key and the token from its
+ *  last answer (or only the key) and gets back a new token, then either
+ *  "full" (the helper cannot vouch for the time since that token: it
+ *  restarted, the token is unknown, or the watcher overflowed) or "ok"
+ *  followed by the changed file names, then a blank line. File names are
+ *  paths relative to the working directory; a name that is no longer a file
+ *  stands for everything under it. Every directory the ignore rules do not
+ *  prune is watched, and directories created later are watched as they
+ *  appear. Before answering, the helper creates a cookie file in
+ *  .gitlet/fsmonitor-cookies and waits for its event, so every change made
+ *  before the question is in the answer.
+ *
+ *  Between commands, the last answer's token, the file list and the file
+ *  hashes known at that point are kept in .gitlet/fsmonitor. Any failure
+ *  to reach the helper means a full scan.
+ *  @author Evelyn
+ */
+class FsMonitor {
+    static File portFile() {
+        return join(Repository.gitletDir(), "fsmonitor.port");
+    }
+
+    static File stateFile() {
+        return join(Repository.gitletDir(), "fsmonitor");
+    }
+
+    static File cookieFolder() {
+        return join(Repository.gitletDir(), "fsmonitor-cookies");
+    }
+
+    private static final int CONNECT_TIMEOUT_MS = 500;
+    private static final int COOKIE_TIMEOUT_MS = 1000;
+    private static final int START_TIMEOUT_MS = 5000;
+    /** How long the helper waits for a connected client's request. */
+    private static final int REQUEST_TIMEOUT_MS = 1000;
+    private static final String FULL = "full";
+    private static final String OK = "ok";
+    private static final String STOP = "stop";
+
+    /** What a scan saw, as of the helper's TOKEN. */
+    static class State implements Serializable {
+        /** Fixed, so that saved state outlives changes to the class. */
+        private static final long serialVersionUID = 262966179854344176L;
+
+        final String token;
+        final TreeSet<String> files;
+        final HashMap<String, String> hashes;
+
+        State(String token, TreeSet<String> files, HashMap<String, String> hashes) {
+            this.token = token;
+            this.files = files;
+            this.hashes = hashes;
+        }
+    }
+
+    //======================================================================
+    // Client
+    //======================================================================
+
+    /** Returns the working files and the hashes still valid for them if the
+     *  helper is running, or null if it is not. After a full answer, the
+     *  files are listed afresh and no hashes are kept. */
+    static State refresh() {
+        if (!portFile().isFile()) {
+            return null;
+        }
+        State saved = null;
+        if (stateFile().isFile()) {
+            try {
+                saved = readObject(stateFile(), State.class);
+            } catch (IllegalArgumentException excp) {
+                saved = null;
+            }
+        }
+        List<String> answer = ask(saved == null ? "" : saved.token);
+        if (answer == null || answer.size() < 2) {
+            return null;
+        }
+        String token = answer.get(0);
+        if (saved == null || !answer.get(1).equals(OK)) {
+            return new State(token, new TreeSet<>(WorkingTree.listFiles()), new HashMap<>());
+        }
+        List<String> changedFiles = answer.subList(2, answer.size());
+        if (changedFiles.contains(IgnoreRules.IGNORE_FILE)) {
+            for (String f : changedFiles) {
+                saved.hashes.remove(f);
+            }
+            return new State(token, new TreeSet<>(WorkingTree.listFiles()), saved.hashes);
+        }
+        IgnoreRules rules = IgnoreRules.load();
+        SparseCheckout sparse = SparseCheckout.load();
+        for (String f : changedFiles) {
+            saved.hashes.remove(f);
+            File file = join(Repository.cwd(), f);
+            if (file.isFile()) {
+                if (!rules.isIgnored(f, false) && (sparse == null || sparse.includes(f))) {
+                    saved.files.add(f);
+                }
+            } else if (!file.isDirectory()) {
+                saved.files.remove(f);
+                saved.files.subSet(f + "/", f + "0").clear();
+            }
+        }
+        return new State(token, saved.files, saved.hashes);
+    }
+
+    /** Saves STATE for the next scan. */
+    static void save(State state) {
+        Transaction tx = new Transaction(Repository.gitletDir(), Transaction.Durability.NONE);
+        tx.writeObject(stateFile(), state);
+        tx.commit();
+    }
+
+    /** Sends LINE to the helper and returns its answer, or null if it cannot
+     *  be reached. */
+    private static List<String> ask(String line) {
+        String[] port = readContentsAsString(portFile()).trim().split(" ");
+        if (port.length < 3) {
+            return null;
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(port[0])), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(COOKIE_TIMEOUT_MS * 2);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                    socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            out.println(port[2] + " " + line);
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> answer = new ArrayList<>();
+            for (String l = in.readLine(); l != null && !l.isEmpty(); l = in.readLine()) {
+                answer.add(l);
+            }
+            return answer;
+        } catch (IOException | NumberFormatException excp) {
+            return null;
+        }
+    }
+
+    /** Starts the helper for the current repository unless it is running. */
+    static void start() {
+        if (portFile().isFile() && ask("") != null) {
+            throw error("The file system monitor is already running.");
+        }
+        String java = join(System.getProperty("java.home"), "bin", "java").getPath();
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp",
+                System.getProperty("java.class.path"), Main.class.getName(), "fsmonitor", "run");
+        pb.directory(Repository.cwd());
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        portFile().delete();
+        try {
+            pb.start();
+            for (long waited = 0; !portFile().isFile() && waited < START_TIMEOUT_MS; waited += 50) {
+                Thread.sleep(50);
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!portFile().isFile()) {
+            throw error("Could not start the file system monitor.");
+        }
+    }
+
+    /** Stops the helper, if it is running. */
+    static void stop() {
+        if (portFile().isFile()) {
+            ask(STOP);
+            portFile().delete();
+        }
+        stateFile().delete();
+    }
+
+    //======================================================================
+    // Helper process
+    //======================================================================
+
+    /** A random name for this run of the helper, part of every token, so a
+     *  token from an earlier run is never taken for one of ours. */
+    private final String instance = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    /** The secret every request must start with. Unlike the instance, which
+     *  is part of tokens saved in .gitlet/fsmonitor, it is only in the
+     *  owner-only port file. */
+    private final String key = newKey();
+    /** Bumped by every answer; changes are stamped with its value. */
+    private long seq = 1;
+    /** The answer count at the last overflow; older tokens get "full". */
+    private long overflowedAt = 0;
+    /** For each changed file name, the stamp of its latest change. */
+    private final HashMap<String, Long> changed = new HashMap<>();
+    /** Names of cookies whose events have arrived. */
+    private final TreeSet<String> cookies = new TreeSet<>();
+    /** For each watched directory, its path relative to the working
+     *  directory followed by /, or "" for the working directory itself. */
+    private final HashMap<Path, String> watched = new HashMap<>();
+
+    /** Runs the helper until asked to stop or the repository goes away. */
+    static void run() {
+        new FsMonitor().serve();
+    }
+
+    private void serve() {
+        cookieFolder().mkdirs();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService();
+             ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Path cookieDir = cookieFolder().toPath();
+            register(watcher, Repository.cwd().toPath(), "", IgnoreRules.load(), null);
+            cookieDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+            Thread watching = new Thread(() -> watch(watcher, cookieDir));
+            watching.setDaemon(true);
+            watching.start();
+
+            writePortFile(server.getLocalPort() + " " + instance + " " + key + "\n");
+
+            server.setSoTimeout(START_TIMEOUT_MS);
+            while (Repository.gitletDir().isDirectory()) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException excp) {
+                    continue;
+                }
+                try (socket) {
+                    socket.setSoTimeout(REQUEST_TIMEOUT_MS);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(
+                            socket.getInputStream(), StandardCharsets.UTF_8));
+                    PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                            socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                    String line = in.readLine();
+                    int space = line == null ? -1 : line.indexOf(' ');
+                    if (space < 0 || !MessageDigest.isEqual(
+                            line.substring(0, space).getBytes(StandardCharsets.UTF_8),
+                            key.getBytes(StandardCharsets.UTF_8))) {
+                        continue;
+                    }
+                    line = line.substring(space + 1);
+                    if (STOP.equals(line)) {
+                        out.println();
+                        return;
+                    }
+                    out.print(answer(line));
+                    out.flush();
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a random key for requests. */
+    private static String newKey() {
+        byte[] b = new byte[16];
+        new SecureRandom().nextBytes(b);
+        return ObjectId.toHex(b);
+    }
+
+    /** Writes CONTENTS to the port file, readable only by its owner. The
+     *  file is made with createTempFile, which gives it owner-only
+     *  permissions, and then renamed into place. */
+    private static void writePortFile(String contents) throws IOException {
+        Path tmp = Files.createTempFile(Repository.gitletDir().toPath(), "port", null);
+        File f = tmp.toFile();
+        f.setReadable(false, false);
+        f.setReadable(true, true);
+        Files.write(tmp, contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, portFile().toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Watches DIR, whose relative path is PREFIX, and every directory
+     *  under it that RULES do not prune. If FOUND is not null, the files
+     *  met on the way are added to it. */
+    private void register(WatchService watcher, Path dir, String prefix, IgnoreRules rules,
+                          List<String> found) throws IOException {
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watched.put(dir, prefix);
+        File[] entries = dir.toFile().listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File e : entries) {
+            String path = prefix + e.getName();
+            if (e.isDirectory()) {
+                if (!Files.isSymbolicLink(e.toPath()) && !rules.matches(path, true)) {
+                    register(watcher, e.toPath(), path + "/", rules, found);
+                }
+            } else if (found != null) {
+                found.add(path);
+            }
+        }
+    }
+
+    /** Records watcher events until the watcher is closed. */
+    private void watch(WatchService watcher, Path cookieDir) {
+        IgnoreRules rules = IgnoreRules.load();
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean isCookie = cookieDir.equals(key.watchable());
+                synchronized (this) {
+                    String prefix = watched.get((Path) key.watchable());
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflowedAt = seq;
+                            continue;
+                        }
+                        String name = event.context().toString();
+                        if (isCookie) {
+                            cookies.add(name);
+                            continue;
+                        }
+                        if (prefix == null) {
+                            continue;
+                        }
+                        String path = prefix + name;
+                        if (path.equals(Repository.gitletDir().getName())) {
+                            continue;
+                        }
+                        changed.put(path, seq);
+                        if (path.equals(IgnoreRules.IGNORE_FILE)) {
+                            // Directories the old rules pruned may need watching.
+                            rules = IgnoreRules.read();
+                            try {
+                                register(watcher, Repository.cwd().toPath(), "", rules, null);
+                            } catch (IOException excp) {
+                                overflowedAt = seq;
+                            }
+                        }
+                        Path child = ((Path) key.watchable()).resolve(name);
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                                && Files.isDirectory(child) && !Files.isSymbolicLink(child)
+                                && !rules.matches(path, true)) {
+                            // Watch the new directory, and report what was
+                            // put in it before the watch began.
+                            List<String> found = new ArrayList<>();
+                            try {
+                                register(watcher, child, path + "/", rules, found);
+                            } catch (IOException excp) {
+                                overflowedAt = seq;
+                            }
+                            for (String f : found) {
+                                changed.put(f, seq);
+                            }
+                        }
+                    }
+                    if (!key.reset()) {
+                        watched.remove((Path) key.watchable());
+                    }
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException excp) {
+            return;
+        }
+    }
+
+    /** Returns the answer to a client holding TOKEN. */
+    private String answer(String token) {
+        // 0. Wait for a fresh cookie so that earlier changes have arrived.
+        String cookie = "cookie-" + System.nanoTime();
+        File cookieFile = join(cookieFolder(), cookie);
+        boolean synced;
+        try {
+            cookieFile.createNewFile();
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT_MS;
+                while (!cookies.contains(cookie) && System.currentTimeMillis() < deadline) {
+                    wait(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+                synced = cookies.remove(cookie);
+            }
+        } catch (IOException | InterruptedException excp) {
+            synced = false;
+        } finally {
+            cookieFile.delete();
+        }
+
+        // 1. List what changed since TOKEN, or ask for a full scan.
+        synchronized (this) {
+            long since = -1;
+            String[] parts = token.split(":");
+            if (parts.length == 2 && parts[0].equals(instance)) {
+                try {
+                    since = Long.parseLong(parts[1]);
+                } catch (NumberFormatException excp) {
+                    since = -1;
+                }
+            }
+            StringBuilder str = new StringBuilder();
+            str.append(instance).append(':').append(seq).append('\n');
+            if (!synced || since < 0 || since > seq || since < overflowedAt) {
+                str.append(FULL).append('\n');
+            } else {
+                str.append(OK).append('\n');
+                for (Map.Entry<String, Long> e : changed.entrySet()) {
+                    if (e.getValue() > since) {
+                        str.append(e.getKey()).append('\n');
+                    }
+                }
+            }
+            seq += 1;
+            return str.append('\n').toString();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/** A check of the object store. Every object is read again and hashed:
+ *  loose blobs and commits, commit packs (whose names are the hash of their
+ *  contents) and each commit in them, and the files of the large-file
+ *  store. Files are hashed in parallel and as streams through a small
+ *  buffer, so memory stays flat however large they are and the disks are
+ *  kept busy. Commits are then checked for missing parents and blobs, refs
+ *  and the stage for missing objects, and objects that nothing refers to
+ *  are reported as dangling.
+ *  @author Evelyn
+ */
+class Fsck {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The ids of every commit present, intact or not. */
+    private final Set<String> commitIds = ConcurrentHashMap.newKeySet();
+    /** The ids of every blob present, intact or not. */
+    private final Set<String> blobIds = ConcurrentHashMap.newKeySet();
+    /** The intact commits, by id. */
+    private final Map<String, Commit> commits = new ConcurrentHashMap<>();
+    /** What is wrong, one line each. */
+    private final Set<String> problems = ConcurrentHashMap.newKeySet();
+
+    /** Checks the current repository and returns what is wrong with it, one
+     *  line per problem, sorted; no lines if nothing is. */
+    static List<String> check() {
+        Fsck fsck = new Fsck();
+        fsck.hashObjects();
+        fsck.checkConnectivity();
+        return new ArrayList<>(new TreeSet<>(fsck.problems));
+    }
+
+    /** Returns the names of the files in DIR that are object ids. */
+    private static List<String> objectNames(File dir) {
+        List<String> names = new ArrayList<>();
+        List<String> files = plainFilenamesIn(dir);
+        if (files != null) {
+            for (String name : files) {
+                if (ObjectId.fromHex(name) != null) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    //======================================================================
+    // Hashing
+    //======================================================================
+
+    private void hashObjects() {
+        List<Runnable> jobs = new ArrayList<>();
+
+        // 0. Loose blobs and the large-file store: hash as a stream.
+        for (String id : objectNames(Repository.objectsFolder())) {
+            blobIds.add(id);
+            jobs.add(() -> checkFile("blob", id, join(Repository.objectsFolder(), id)));
+        }
+        File store = LargeFiles.store();
+        for (String id : objectNames(store)) {
+            jobs.add(() -> checkFile("large file", id, join(store, id)));
+        }
+
+        // 1. Loose commits: small, so read whole, hashed and parsed.
+        for (String id : objectNames(Commit.commitsFolder())) {
+            commitIds.add(id);
+            jobs.add(() -> checkCommit(id, readContents(join(Commit.commitsFolder(), id))));
+        }
+
+        // 2. Packs: the whole file, then each commit in it.
+        File packFolder = PackedCommits.packFolder(Repository.gitletDir());
+        List<String> packNames = plainFilenamesIn(packFolder);
+        for (String name : packNames == null ? new ArrayList<String>() : packNames) {
+            if (!name.endsWith(".pack")) {
+                continue;
+            }
+            File f = join(packFolder, name);
+            PackedCommits pack;
+            try {
+                pack = PackedCommits.readPack(f);
+            } catch (IllegalArgumentException excp) {
+                problems.add("corrupt pack " + name);
+                continue;
+            }
+            List<String> ids = new ArrayList<>();
+            pack.addIds(ids);
+            commitIds.addAll(ids);
+            jobs.add(() -> {
+                String id = name.substring(0, name.length() - ".pack".length());
+                if (!id.equals(hash(f))) {
+                    problems.add("corrupt pack " + name);
+                }
+                for (String commit : ids) {
+                    byte[] contents;
+                    try {
+                        contents = pack.read(commit);
+                    } catch (IllegalArgumentException | NegativeArraySizeException excp) {
+                        contents = null;
+                    }
+                    checkCommit(commit, contents);
+                }
+            });
+        }
+
+        jobs.parallelStream().forEach(GitletRepository.bind(Runnable::run));
+    }
+
+    /** Reports the object ID, of kind KIND, if the file F holding it does not
+     *  hash to ID. */
+    private void checkFile(String kind, String id, File f) {
+        if (!id.equals(hash(f))) {
+            problems.add("corrupt " + kind + " " + id);
+        }
+    }
+
+    /** Parses commit ID, serialized as CONTENTS, and reports it if CONTENTS
+     *  do not hash to ID. A commit that still parses keeps its place in the
+     *  history, so that its ancestors are not reported as dangling too. */
+    private void checkCommit(String id, byte[] contents) {
+        if (contents == null || !id.equals(hashObject(contents))) {
+            problems.add("corrupt commit " + id);
+        }
+        if (contents == null) {
+            return;
+        }
+        try {
+            Commit c = Commit.deserialize(contents);
+            if (c.getParents() != null && c.getFiles() != null) {
+                commits.put(id, c);
+                return;
+            }
+        } catch (IllegalArgumentException excp) {
+            // Reported below.
+        }
+        problems.add("corrupt commit " + id);
+    }
+
+    /** Returns the hex hash of the contents of F, read as a stream, or null
+     *  if F cannot be read. */
+    private static String hash(File f) {
+        MessageDigest md = ObjectFormat.current().newDigest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                Stats.read(n);
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return ObjectId.toHex(md.digest());
+    }
+
+    //======================================================================
+    // Connectivity
+    //======================================================================
+
+    private void checkConnectivity() {
+        // 0. What commits refer to.
+        HashSet<String> parents = new HashSet<>();
+        HashSet<String> referencedBlobs = new HashSet<>();
+        for (Map.Entry<String, Commit> e : commits.entrySet()) {
+            for (String parent : e.getValue().getParents()) {
+                parents.add(parent);
+                if (!commitIds.contains(parent)) {
+                    problems.add("missing commit " + parent + " (parent of " + e.getKey() + ")");
+                }
+            }
+            for (String blob : e.getValue().getFiles().values()) {
+                referencedBlobs.add(blob);
+                if (!blobIds.contains(blob)) {
+                    problems.add("missing blob " + blob + " (in commit " + e.getKey() + ")");
+                }
+            }
+        }
+
+        // 1. Refs, HEAD and the stage.
+        Map<String, String> refs = Repository.refs().scan("");
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            if (ref.getKey().equals(RefTable.HEAD)) {
+                if (!refs.containsKey(ref.getValue())) {
+                    problems.add("broken ref " + RefTable.HEAD);
+                }
+            } else if (!commitIds.contains(ref.getValue())) {
+                problems.add("broken ref " + ref.getKey());
+            } else {
+                queue.add(ref.getValue());
+            }
+        }
+        for (Map.Entry<String, String> e : Stage.getStage().getToBeAdded().entrySet()) {
+            referencedBlobs.add(e.getValue());
+            if (!blobIds.contains(e.getValue())) {
+                problems.add("missing blob " + e.getValue() + " (staged as " + e.getKey() + ")");
+            }
+        }
+
+        // 2. Dangling objects: commits no ref reaches and no commit has as a
+        // parent, and blobs no commit or stage entry refers to.
+        HashSet<String> reachable = new HashSet<>();
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            Commit c = commits.get(id);
+            if (reachable.add(id) && c != null) {
+                queue.addAll(c.getParents());
+            }
+        }
+        for (String id : commitIds) {
+            if (!reachable.contains(id) && !parents.contains(id)) {
+                problems.add("dangling commit " + id);
+            }
+        }
+        for (String id : blobIds) {
+            if (!referencedBlobs.contains(id)) {
+                problems.add("dangling blob " + id);
+            }
+        }
+    }
+}
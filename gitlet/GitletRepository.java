@@ -0,0 +1,488 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.*;
+
+/** A handle on one gitlet repository, for programs that use gitlet as a
+ *  library. Operations return typed results and report failures by throwing
+ *  a {@link GitletException} whose message is what the command line would
+ *  print; the command line ({@link Main}) is a thin layer over this class.
+ *
+ *  The rest of gitlet works on "the current repository". Each operation
+ *  makes this handle current on the calling thread for its duration, so
+ *  one JVM can work on many repositories, from many threads, without
+ *  changing directory or starting processes. Files read over and over, like
+ *  the config, the ignore rules, ref tables and the commit graph, are parsed
+ *  once per handle and parsed again only when the file changes on disk.
+ *
+ *  Operations lock the repository (see {@link LockManager}), so handles may
+ *  be shared between threads and many processes may use one repository:
+ *  reads run side by side and changes run one at a time. Reading history
+ *  (log, global-log and find) takes no lock at all.
+ *  @author Evelyn
+ */
+public class GitletRepository {
+    /** The repository of the operation running on each thread. */
+    private static final InheritableThreadLocal<GitletRepository> CURRENT =
+            new InheritableThreadLocal<>();
+    /** The repository in the directory the JVM started in, for threads that
+     *  run no operation. */
+    private static GitletRepository defaultRepository;
+
+    private final File workTree;
+    private final File gitletDir;
+    /** Parsed files, each with the attributes it had when parsed. */
+    private final Map<File, Cached> cache = new ConcurrentHashMap<>();
+
+    private static class Cached {
+        final Object stamp;
+        final Object value;
+
+        Cached(Object stamp, Object value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+
+    private GitletRepository(File workTree) {
+        this.workTree = workTree.getAbsoluteFile();
+        this.gitletDir = join(this.workTree, ".gitlet");
+    }
+
+    /** Returns a handle on the repository whose working directory is
+     *  WORKTREE. */
+    public static GitletRepository open(File workTree) {
+        GitletRepository repo = new GitletRepository(workTree);
+        if (!repo.gitletDir.isDirectory()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        return repo;
+    }
+
+    /** Creates a repository in WORKTREE whose objects are named with FORMAT,
+     *  the name of an object format, or null for the default, and returns a
+     *  handle on it. */
+    public static GitletRepository init(File workTree, String format) {
+        GitletRepository repo = new GitletRepository(workTree);
+        repo.run(() -> Repository.init(format));
+        return repo;
+    }
+
+    /** Returns the working directory. */
+    public File workTree() {
+        return workTree;
+    }
+
+    /** Returns the .gitlet directory. */
+    public File gitletDir() {
+        return gitletDir;
+    }
+
+    //======================================================================
+    // Operations
+    //======================================================================
+
+    /** Stages the working copy of FILE, a path relative to the working
+     *  directory. */
+    public void add(String file) {
+        exclusive(() -> Repository.add(file));
+    }
+
+    /** Stages FILE for removal and deletes it if it is tracked. */
+    public void remove(String file) {
+        exclusive(() -> Repository.remove(file));
+    }
+
+    /** Commits the staged changes with MESSAGE and returns the new commit's
+     *  id. */
+    public String commit(String message) {
+        return exclusive(() -> Repository.commit(message, null));
+    }
+
+    /** Returns the history of the head commit, newest first, following first
+     *  parents. */
+    public List<CommitInfo> log() {
+        return call(() -> Repository.log());
+    }
+
+    /** Returns the commits of log that changed PATH. */
+    public List<CommitInfo> log(String path) {
+        return call(() -> Repository.log(path));
+    }
+
+    /** Returns every commit ever made, in no particular order. */
+    public List<CommitInfo> globalLog() {
+        return call(Repository::globalLog);
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE. */
+    public List<String> find(String message) {
+        return call(() -> Repository.find(message));
+    }
+
+    public Status status() {
+        return shared(Repository::status);
+    }
+
+    /** Returns each line of FILE as of the head commit, prefixed with the
+     *  commit that last changed it, as blame prints it. */
+    public String blame(String file) {
+        return shared(() -> Repository.blame(file));
+    }
+
+    /** Writes to OUT the diff between commits FROM and TO, limited to PATH.
+     *  A null TO means the working directory, and a null FROM too means
+     *  comparing the stage with the working directory; a null PATH means
+     *  every file. */
+    public void diff(String from, String to, String path, Writer out) {
+        shared(() -> Repository.diff(from, to, path, out));
+    }
+
+    /** Returns the current branch. */
+    public String currentBranch() {
+        return shared(Repository::getActiveBranch);
+    }
+
+    /** Returns every branch, sorted. */
+    public List<String> branches() {
+        return shared(() -> Repository.listBranches(gitletDir));
+    }
+
+    /** Creates BRANCH at the head commit. */
+    public void branch(String branch) {
+        exclusive(() -> Repository.branch(branch));
+    }
+
+    public void removeBranch(String branch) {
+        exclusive(() -> Repository.rmBranch(branch));
+    }
+
+    /** Returns the branches whose history contains commit ID. */
+    public List<String> branchesContaining(String id) {
+        return shared(() -> Repository.branchContains(id));
+    }
+
+    /** Checks out BRANCH and makes it the current branch. */
+    public void checkoutBranch(String branch) {
+        exclusive(() -> Repository.checkoutBranch(branch));
+    }
+
+    /** Restores FILE to its version in the head commit. */
+    public void checkoutFile(String file) {
+        exclusive(() -> Repository.checkoutFile(file));
+    }
+
+    /** Restores FILE to its version in commit ID, which may be abbreviated. */
+    public void checkoutFile(String id, String file) {
+        exclusive(() -> Repository.checkoutCommit(id, file));
+    }
+
+    /** Checks out commit ID and moves the current branch to it. */
+    public void reset(String id) {
+        exclusive(() -> Repository.reset(id));
+    }
+
+    /** Merges BRANCH into the current branch. */
+    public MergeResult merge(String branch) {
+        return exclusive(() -> Repository.merge(branch));
+    }
+
+    /** Applies the changes made by commit ID on top of the head commit. */
+    public MergeResult cherryPick(String id) {
+        return exclusive(() -> Repository.cherryPick(id));
+    }
+
+    /** Replays the current branch on top of BRANCH. */
+    public MergeResult rebase(String branch) {
+        return exclusive(() -> Repository.rebase(branch));
+    }
+
+    /** Saves the staged and working changes, untracked files included, as a
+     *  new stash described by MESSAGE, which may be null, and resets the
+     *  working directory to the head commit. */
+    public void stashPush(String message) {
+        exclusive(() -> Repository.stashPush(message));
+    }
+
+    /** Applies the newest stash and drops it. */
+    public void stashPop() {
+        exclusive(Repository::stashPop);
+    }
+
+    /** Returns the stashes, newest first, as stash list prints them. */
+    public List<String> stashList() {
+        return shared(Repository::stashList);
+    }
+
+    /** Returns the value of configuration KEY, or null if it is not set. */
+    public String config(String key) {
+        return shared(() -> Repository.config(key));
+    }
+
+    /** Sets configuration KEY to VALUE. */
+    public void config(String key, String value) {
+        exclusive(() -> Repository.config(key, value));
+    }
+
+    /** Returns the directories of the sparse checkout. */
+    public List<String> sparseCheckoutList() {
+        return shared(Repository::sparseCheckoutList);
+    }
+
+    /** Limits the working directory to DIRS. */
+    public void sparseCheckoutSet(List<String> dirs) {
+        exclusive(() -> Repository.sparseCheckout("set", dirs));
+    }
+
+    /** Adds DIRS to the sparse checkout. */
+    public void sparseCheckoutAdd(List<String> dirs) {
+        exclusive(() -> Repository.sparseCheckout("add", dirs));
+    }
+
+    /** Checks every file out again. */
+    public void sparseCheckoutDisable() {
+        exclusive(() -> Repository.sparseCheckout("disable", null));
+    }
+
+    /** Starts the file system monitor unless it is running. */
+    public void startFsMonitor() {
+        run(FsMonitor::start);
+    }
+
+    public void stopFsMonitor() {
+        run(FsMonitor::stop);
+    }
+
+    /** Checks every object in the repository and returns what is wrong, one
+     *  line per problem, as fsck prints it. */
+    public List<String> fsck() {
+        return shared(Fsck::check);
+    }
+
+    /** Writes the commit graph and reachability bitmaps. */
+    public void writeCommitGraph() {
+        exclusive(Repository::commitGraphWrite);
+    }
+
+    /** Runs the maintenance tasks named TASKS, or, if TASKS is null, every
+     *  task that is due (if AUTO, only those past their thresholds), for at
+     *  most BUDGETMILLIS milliseconds, or maintenance.budget if BUDGETMILLIS
+     *  is negative. Returns the names of the tasks that
+     *  finished; none if another maintenance is running. Maintenance locks
+     *  the repository only for its last, short step, so it may run beside
+     *  other operations. */
+    public List<String> maintenance(boolean auto, List<String> tasks, long budgetMillis) {
+        List<Maintenance.Task> selected = null;
+        if (tasks != null) {
+            selected = new ArrayList<>();
+            for (String name : tasks) {
+                Maintenance.Task t = Maintenance.Task.forName(name);
+                if (t == null) {
+                    throw error("No maintenance task named %s.", name);
+                }
+                selected.add(t);
+            }
+        }
+        List<Maintenance.Task> chosen = selected;
+        return call(() -> Maintenance.run(auto, chosen, budgetMillis >= 0 ? budgetMillis
+                : Config.getInt(Maintenance.BUDGET_KEY, Maintenance.DEFAULT_BUDGET)));
+    }
+
+    /** Starts an automatic maintenance run of at most BUDGETMILLIS
+     *  milliseconds on a daemon thread, and returns the thread. */
+    public Thread startMaintenance(long budgetMillis) {
+        Thread t = new Thread(() -> maintenance(true, null, budgetMillis), "gitlet-maintenance");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /** Starts an automatic maintenance run in a process of its own if
+     *  maintenance.auto is true and a task is due, as the command line does
+     *  after each command that adds history. */
+    public void scheduleMaintenance() {
+        run(() -> {
+            if (Boolean.parseBoolean(Config.get(Maintenance.AUTO_KEY, "false"))
+                    && !Maintenance.due(true).isEmpty()) {
+                Maintenance.startProcess();
+            }
+        });
+    }
+
+    /** Adds the remote NAME, whose .gitlet directory is at PATH. */
+    public void addRemote(String name, String path) {
+        exclusive(() -> Repository.addRemote(name, path));
+    }
+
+    public void removeRemote(String name) {
+        exclusive(() -> Repository.rmRemote(name));
+    }
+
+    /** Sends the head commit to BRANCH of remote NAME. */
+    public void push(String name, String branch) {
+        run(() -> LockManager.both(gitletDir, false, Repository.getRemoteDir(name), true,
+                () -> {
+                    Repository.push(name, branch);
+                    return null;
+                }));
+    }
+
+    /** Copies BRANCH of remote NAME to the branch NAME/BRANCH. */
+    public void fetch(String name, String branch) {
+        run(() -> LockManager.both(gitletDir, true, Repository.getRemoteDir(name), false,
+                () -> {
+                    Repository.fetch(name, branch);
+                    return null;
+                }));
+    }
+
+    /** Fetches BRANCH of remote NAME and merges it. */
+    public MergeResult pull(String name, String branch) {
+        fetch(name, branch);
+        return exclusive(() -> Repository.pull(name, branch));
+    }
+
+    /** Writes the files of COMMIT, a branch or commit id, to OUT as a tar
+     *  or zip archive as FORMAT says, without touching the working
+     *  directory. */
+    public void archive(String commit, String format, OutputStream out) {
+        shared(() -> Repository.archive(commit, format, out));
+    }
+
+    /** Writes the history selected by SPEC, BRANCH or BASE..BRANCH, to the
+     *  bundle FILE, compressed if COMPRESS. */
+    public void bundleCreate(String file, String spec, boolean compress) {
+        shared(() -> Repository.bundleCreate(file, spec, compress));
+    }
+
+    /** Imports the bundle FILE and returns the branches it could not
+     *  fast-forward. */
+    public List<String> unbundle(String file) {
+        return exclusive(() -> Repository.bundleUnbundle(file));
+    }
+
+    //======================================================================
+    // The current repository
+    //======================================================================
+
+    /** Returns the repository of the operation running on this thread. */
+    static GitletRepository current() {
+        GitletRepository repo = CURRENT.get();
+        if (repo != null) {
+            return repo;
+        }
+        synchronized (GitletRepository.class) {
+            if (defaultRepository == null) {
+                defaultRepository = new GitletRepository(new File(System.getProperty("user.dir")));
+            }
+            return defaultRepository;
+        }
+    }
+
+    /** Returns the result of BODY, run with this repository current. */
+    <T> T call(Supplier<T> body) {
+        GitletRepository outer = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return body.get();
+        } finally {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+
+    /** Runs BODY with this repository current. */
+    void run(Runnable body) {
+        call(() -> {
+            body.run();
+            return null;
+        });
+    }
+
+    /** Returns the result of BODY, run with this repository current and its
+     *  lock held shared, for operations that only read. */
+    private <T> T shared(Supplier<T> body) {
+        return call(() -> LockManager.of(gitletDir).shared(body));
+    }
+
+    /** Runs BODY as {@link #shared(Supplier)} does. */
+    private void shared(Runnable body) {
+        shared(() -> {
+            body.run();
+            return null;
+        });
+    }
+
+    /** Returns the result of BODY, run with this repository current and its
+     *  lock held exclusive, for operations that change it. */
+    private <T> T exclusive(Supplier<T> body) {
+        return call(() -> LockManager.of(gitletDir).exclusive(body));
+    }
+
+    /** Runs BODY as {@link #exclusive(Supplier)} does. */
+    private void exclusive(Runnable body) {
+        exclusive(() -> {
+            body.run();
+            return null;
+        });
+    }
+
+    /** Returns ACTION, made to run against the current repository on
+     *  whichever thread calls it, as the threads of parallel streams do. */
+    static <T> Consumer<T> bind(Consumer<T> action) {
+        GitletRepository repo = current();
+        return t -> repo.run(() -> action.accept(t));
+    }
+
+    /** Like {@link #bind}, for a FUNCTION. */
+    static <T, R> Function<T, R> bindFunction(Function<T, R> function) {
+        GitletRepository repo = current();
+        return t -> repo.call(() -> function.apply(t));
+    }
+
+    /** Returns the value LOAD makes of FILE, which may be missing, reusing
+     *  the last one while the file is unchanged. */
+    @SuppressWarnings("unchecked")
+    <T> T cached(File file, Supplier<T> load) {
+        Object stamp = stamp(file);
+        Cached c = cache.get(file);
+        if (c == null || !c.stamp.equals(stamp)) {
+            c = new Cached(stamp, load.get());
+            cache.put(file, c);
+        }
+        return (T) c.value;
+    }
+
+    /** Returns what identifies the version of FILE on disk: its file key
+     *  (which files renamed into place do not share), size and time. */
+    private static Object stamp(File file) {
+        try {
+            BasicFileAttributes a = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            return List.of(Objects.toString(a.fileKey()), a.size(),
+                    a.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException excp) {
+            return List.of();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
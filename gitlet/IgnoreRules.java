@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** The patterns in the .gitletignore file at the top of the working
+ *  directory, which name files and directories that are left out of the
+ *  working-directory scan. Each line is one pattern, as in .gitignore:
+ *  blank lines and lines starting with # are skipped, a leading ! re-includes
+ *  what earlier patterns excluded, a trailing / matches only directories, a
+ *  pattern with a / elsewhere is matched against the whole path (otherwise
+ *  against the last component), and *, ?, [...] and ** are wildcards.
+ *  The last matching pattern wins. Patterns are compiled once, when loaded.
+ *
+ *  An ignored directory is never walked, so files inside it cannot be
+ *  re-included. The .gitlet directory is always ignored.
+ *  @author Evelyn
+ */
+class IgnoreRules {
+    static final String IGNORE_FILE = ".gitletignore";
+
+    private final List<Rule> rules = new ArrayList<>();
+
+    private static class Rule {
+        final Pattern pattern;
+        final boolean negated;
+        final boolean dirOnly;
+        final boolean anchored;
+
+        Rule(Pattern pattern, boolean negated, boolean dirOnly, boolean anchored) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.dirOnly = dirOnly;
+            this.anchored = anchored;
+        }
+    }
+
+    /** Returns the rules of the current working directory, parsed again
+     *  only when the file has changed. */
+    static IgnoreRules load() {
+        return GitletRepository.current().cached(join(Repository.cwd(), IGNORE_FILE),
+                IgnoreRules::read);
+    }
+
+    /** Reads the rules of the current working directory afresh. */
+    static IgnoreRules read() {
+        File f = join(Repository.cwd(), IGNORE_FILE);
+        return new IgnoreRules(f.isFile() ? readContentsAsString(f) : "");
+    }
+
+    IgnoreRules(String text) {
+        rules.add(new Rule(Pattern.compile(Pattern.quote(Repository.gitletDir().getName())),
+                false, true, true));
+        for (String line : text.split("\r?\n")) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            boolean negated = line.startsWith("!");
+            if (negated) {
+                line = line.substring(1);
+            }
+            boolean dirOnly = line.endsWith("/");
+            if (dirOnly) {
+                line = line.substring(0, line.length() - 1);
+            }
+            boolean anchored = line.contains("/");
+            if (line.startsWith("/")) {
+                line = line.substring(1);
+            }
+            if (!line.isEmpty()) {
+                rules.add(new Rule(Pattern.compile(toRegex(line)), negated, dirOnly, anchored));
+            }
+        }
+    }
+
+    /** Returns true if the last pattern that matches PATH (relative, with /
+     *  separators) excludes it. DIR tells whether PATH is a directory. Only
+     *  PATH itself is tested, not the directories above it. */
+    boolean matches(String path, boolean dir) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        for (int i = rules.size() - 1; i >= 0; i -= 1) {
+            Rule r = rules.get(i);
+            if (r.dirOnly && !dir) {
+                continue;
+            }
+            if (r.pattern.matcher(r.anchored ? path : name).matches()) {
+                return !r.negated;
+            }
+        }
+        return false;
+    }
+
+    /** Returns true if PATH, or any directory above it, is ignored. */
+    boolean isIgnored(String path, boolean dir) {
+        for (int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) {
+            if (matches(path.substring(0, i), true)) {
+                return true;
+            }
+        }
+        return matches(path, dir);
+    }
+
+    /** Translates the glob GLOB into a regular expression. */
+    private static String toRegex(String glob) {
+        StringBuilder re = new StringBuilder();
+        int n = glob.length();
+        for (int i = 0; i < n; i += 1) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < n && glob.charAt(i + 1) == '*') {
+                boolean atStart = i == 0 || glob.charAt(i - 1) == '/';
+                if (atStart && i + 2 < n && glob.charAt(i + 2) == '/') {
+                    re.append("(?:.*/)?");
+                    i += 2;
+                } else {
+                    re.append(".*");
+                    i += 1;
+                }
+            } else if (c == '*') {
+                re.append("[^/]*");
+            } else if (c == '?') {
+                re.append("[^/]");
+            } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                int end = glob.indexOf(']', i + 2);
+                String set = glob.substring(i + 1, end);
+                if (set.startsWith("!")) {
+                    set = "^" + set.substring(1);
+                }
+                re.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                i = end;
+            } else if (c == '\\' && i + 1 < n) {
+                i += 1;
+                re.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+            } else {
+                re.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return re.toString();
+    }
+}
@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+
+import static gitlet.Utils.*;
+
+/** Large files, kept out of .gitlet/objects. When largefiles.threshold is
+ *  set, add stores a working file of at least that many bytes as a small
+ *  pointer blob naming the id and size of its contents, and puts the
+ *  contents themselves in the large-file store: .gitlet/large, or the
+ *  directory largefiles.store names, which several repositories may share.
+ *  Commits, packs, bundles and everything else that walks objects then only
+ *  ever see the pointer.
+ *
+ *  Checkout reads a file's contents from the store only when it writes that
+ *  file, so only the large files a checkout actually changes are copied,
+ *  and they are copied in parallel like every other file. If
+ *  largefiles.fetch is set, to gitignore-style patterns separated by
+ *  commas, only matching paths are fetched; the rest, and any whose
+ *  contents are missing from the store, are checked out as the pointer.
+ *  Either way, a working file counts as unchanged as long as it holds the
+ *  contents or the pointer.
+ *  @author Evelyn
+ */
+class LargeFiles {
+    /** Config key for the size, in bytes, from which files are offloaded. */
+    static final String THRESHOLD_KEY = "largefiles.threshold";
+    /** Config key for the directory of the large-file store. */
+    static final String STORE_KEY = "largefiles.store";
+    /** Config key for the patterns of the paths checkout fetches. */
+    static final String FETCH_KEY = "largefiles.fetch";
+
+    /** The first line of every pointer. */
+    private static final String HEADER = "gitlet large file";
+    /** No pointer is longer than this. */
+    private static final int MAX_POINTER_SIZE = 256;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Returns true if the working file F is large enough to offload. */
+    static boolean isLarge(File f) {
+        int threshold = Config.getInt(THRESHOLD_KEY, 0);
+        return threshold > 0 && f.length() >= threshold;
+    }
+
+    /** Returns the blob that add stores for the working file F: its
+     *  contents, or a pointer to them if F is large. Large files are hashed
+     *  as a stream, never read whole. */
+    static byte[] blob(File f) {
+        if (!isLarge(f)) {
+            return readContents(f);
+        }
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            return pointer(copy(in, null), f.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Like {@link #blob}, but also copies the contents of a large F into
+     *  the store, hashing them on the way. */
+    static byte[] offload(File f) {
+        if (!isLarge(f)) {
+            return readContents(f);
+        }
+        File store = store();
+        store.mkdirs();
+        try {
+            File tmp = File.createTempFile("large", null, store);
+            String id;
+            try (InputStream in = Files.newInputStream(f.toPath());
+                 OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                id = copy(in, out);
+            }
+            File target = join(store, id);
+            if (target.isFile()) {
+                Files.delete(tmp.toPath());
+            } else {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            return pointer(id, f.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true if BLOB, a file in .gitlet/objects, is small enough to
+     *  be a pointer, so that it is worth reading to check. */
+    static boolean mayBePointer(File blob) {
+        return blob.length() <= MAX_POINTER_SIZE;
+    }
+
+    /** Returns the file in the store that checkout should copy to PATH in
+     *  place of the blob CONTENTS, or null if CONTENTS are not a pointer,
+     *  PATH is not to be fetched, or the store lacks the file. */
+    static File fetch(String path, byte[] contents) {
+        String id = pointedTo(contents);
+        if (id == null) {
+            return null;
+        }
+        IgnoreRules rules = Config.getParsed(FETCH_KEY, LargeFiles::fetchRules);
+        if (rules != null && !rules.isIgnored(path, false)) {
+            return null;
+        }
+        File f = join(store(), id);
+        return f.isFile() ? f : null;
+    }
+
+    /** Returns the rules matching the paths to fetch, given PATTERNS, the
+     *  comma-separated value of largefiles.fetch. */
+    private static IgnoreRules fetchRules(String patterns) {
+        return new IgnoreRules(patterns.strip().replaceAll("\\s*,\\s*", "\n"));
+    }
+
+    /** Returns the id of the contents the pointer CONTENTS stands for, or
+     *  null if CONTENTS are not a pointer. */
+    static String pointedTo(byte[] contents) {
+        if (contents.length > MAX_POINTER_SIZE) {
+            return null;
+        }
+        String[] lines = new String(contents, StandardCharsets.UTF_8).split("\n");
+        if (lines.length != 3 || !lines[0].equals(HEADER) || !lines[1].startsWith("oid ")
+                || !lines[2].startsWith("size ")) {
+            return null;
+        }
+        String id = lines[1].substring("oid ".length());
+        return ObjectId.fromHex(id) == null ? null : id;
+    }
+
+    /** Returns the large-file store of the current repository. */
+    static File store() {
+        String dir = Config.get(STORE_KEY, null);
+        if (dir == null) {
+            return join(Repository.gitletDir(), "large");
+        }
+        File f = new File(dir);
+        return f.isAbsolute() ? f : join(Repository.cwd(), dir);
+    }
+
+    private static byte[] pointer(String id, long size) {
+        return (HEADER + "\noid " + id + "\nsize " + size + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Copies IN to OUT, if not null, and returns the hex hash of what was
+     *  copied. */
+    private static String copy(InputStream in, OutputStream out) throws IOException {
+        MessageDigest md = ObjectFormat.current().newDigest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            md.update(buf, 0, n);
+            Stats.read(n);
+            if (out != null) {
+                out.write(buf, 0, n);
+                Stats.written(n);
+            }
+        }
+        return ObjectId.toHex(md.digest());
+    }
+}
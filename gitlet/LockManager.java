@@ -0,0 +1,155 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.*;
+
+/** The lock that orders operations on one repository, between processes and
+ *  between the threads of one process. Operations that only read take it
+ *  shared, so any number of them run at once; operations that change the
+ *  repository take it exclusive, so they see no other operation half done
+ *  and leave none half done for others.
+ *
+ *  Between processes the lock is a FileChannel lock on .gitlet/lock, which
+ *  the system releases when its process dies, so a crash never leaves the
+ *  repository locked. The file itself is never deleted. A process holds a
+ *  file lock only once, so its threads first take a read-write lock of
+ *  their own: the first shared holder takes the shared file lock and the
+ *  last one releases it.
+ *
+ *  Reading history needs no lock at all (see Repository.log): commits and
+ *  blobs are immutable files, renamed into place whole.
+ *  @author Evelyn
+ */
+class LockManager {
+    /** The manager of each lock file in use in this process. */
+    private static final Map<File, LockManager> MANAGERS = new ConcurrentHashMap<>();
+
+    private final File lockFile;
+    /** Orders the threads of this process. */
+    private final ReentrantReadWriteLock threads = new ReentrantReadWriteLock();
+    /** The open, locked lock file, while anyone holds the lock. */
+    private FileChannel channel;
+    /** The number of shared holds in this process. */
+    private int readers;
+
+    private LockManager(File lockFile) {
+        this.lockFile = lockFile;
+    }
+
+    /** Returns the lock of the repository whose .gitlet directory is
+     *  GITLETDIR. */
+    static LockManager of(File gitletDir) {
+        File f = join(gitletDir, "lock").getAbsoluteFile();
+        try {
+            f = f.getCanonicalFile();
+        } catch (IOException excp) {
+            // Keep the absolute path.
+        }
+        return MANAGERS.computeIfAbsent(f, LockManager::new);
+    }
+
+    /** Returns the result of BODY, run holding this lock shared. */
+    <T> T shared(Supplier<T> body) {
+        if (threads.isWriteLockedByCurrentThread()) {
+            return body.get();
+        }
+        threads.readLock().lock();
+        try {
+            synchronized (this) {
+                if (readers == 0) {
+                    lockFile(true);
+                }
+                readers += 1;
+            }
+            try {
+                return body.get();
+            } finally {
+                synchronized (this) {
+                    readers -= 1;
+                    if (readers == 0) {
+                        unlockFile();
+                    }
+                }
+            }
+        } finally {
+            threads.readLock().unlock();
+        }
+    }
+
+    /** Returns the result of BODY, run holding this lock exclusive. */
+    <T> T exclusive(Supplier<T> body) {
+        threads.writeLock().lock();
+        try {
+            boolean outermost = threads.getWriteHoldCount() == 1;
+            if (outermost) {
+                synchronized (this) {
+                    lockFile(false);
+                }
+            }
+            try {
+                return body.get();
+            } finally {
+                if (outermost) {
+                    synchronized (this) {
+                        unlockFile();
+                    }
+                }
+            }
+        } finally {
+            threads.writeLock().unlock();
+        }
+    }
+
+    /** Returns the result of BODY, run holding the lock of FIRST (exclusive
+     *  if FIRSTEXCLUSIVE) and that of SECOND (exclusive if SECONDEXCLUSIVE).
+     *  The two are always taken in the same order, whichever is FIRST, so
+     *  two repositories pushing to or fetching from each other cannot wait
+     *  on each other forever. */
+    static <T> T both(File first, boolean firstExclusive,
+                      File second, boolean secondExclusive, Supplier<T> body) {
+        LockManager a = of(first);
+        LockManager b = of(second);
+        if (a == b) {
+            return firstExclusive || secondExclusive ? a.exclusive(body) : a.shared(body);
+        }
+        if (a.lockFile.compareTo(b.lockFile) > 0) {
+            return both(second, secondExclusive, first, firstExclusive, body);
+        }
+        Supplier<T> inner = () -> secondExclusive ? b.exclusive(body) : b.shared(body);
+        return firstExclusive ? a.exclusive(inner) : a.shared(inner);
+    }
+
+    /** Opens the lock file and locks it, SHARED or not, waiting for other
+     *  processes to release it. */
+    private void lockFile(boolean shared) {
+        try {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException excp) {
+            unlockFile();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Closes the lock file, which releases the lock on it. */
+    private void unlockFile() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            channel = null;
+        }
+    }
+}
@@ -1,9 +1,80 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
+ *  Runs each command on the repository in the current directory through
+ *  GitletRepository and prints its result or error.
  *  @author Evelyn
  */
 public class Main {
+    /** The commands after which maintenance may be due. */
+    private static final Set<String> ADDS_HISTORY = Set.of("commit", "merge", "cherry-pick",
+            "rebase", "fetch", "pull", "bundle");
+
+    /** Returns the repository in the current directory. */
+    private static GitletRepository repo() {
+        return GitletRepository.open(cwd());
+    }
+
+    private static File cwd() {
+        return new File(System.getProperty("user.dir"));
+    }
+
+    /** Prints the commits COMMITS as log does. */
+    private static void printLog(List<CommitInfo> commits) {
+        StringBuilder str = new StringBuilder();
+        for (CommitInfo commit : commits) {
+            str.append(commit);
+        }
+        System.out.print(str);
+    }
+
+    /** Prints what the merge, pull, cherry-pick or rebase RESULT did. A
+     *  fast-forward or no-op merge is reported with FASTFORWARD or UPTODATE. */
+    private static void printMerge(MergeResult result, String fastForward, String upToDate) {
+        switch (result.getKind()) {
+            case FAST_FORWARD -> System.out.println(fastForward);
+            case UP_TO_DATE -> System.out.println(upToDate);
+            default -> {
+                if (result.isConflicted()) {
+                    System.out.println("Encountered a merge conflict.");
+                }
+            }
+        }
+    }
+
+    /** Writes the archive of COMMIT in FORMAT to the file OUTPUT, or to
+     *  standard output if OUTPUT is null. A failed archive leaves no file. */
+    private static void archive(String commit, String format, String output) {
+        if (output == null) {
+            OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+            repo().archive(commit, format, out);
+            return;
+        }
+        File file = new File(output).isAbsolute() ? new File(output) : new File(cwd(), output);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            repo().archive(commit, format, out);
+        } catch (IOException excp) {
+            file.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (RuntimeException excp) {
+            file.delete();
+            throw excp;
+        }
+    }
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
@@ -14,11 +85,29 @@ public class Main {
             System.exit(0);
         }
 
+        Stats.reportOnExit(args[0]);
+        try {
+            run(args);
+            if (ADDS_HISTORY.contains(args[0])) {
+                repo().scheduleMaintenance();
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            System.exit(0);
+        }
+    }
+
+    private static void run(String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             case "init" -> {
                 if (args.length == 1) {
-                    Repository.init();
+                    GitletRepository.init(cwd(), null);
+                    break;
+                }
+                if (args.length == 2 && args[1].startsWith("--object-format=")) {
+                    GitletRepository.init(cwd(),
+                            args[1].substring("--object-format=".length()));
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -26,7 +115,7 @@ public class Main {
             }
             case "add" -> {
                 if (args.length == 2) {
-                    Repository.add(args[1]);
+                    repo().add(args[1]);
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -38,7 +127,7 @@ public class Main {
                     System.exit(0);
                 }
                 if (args.length == 2) {
-                    Repository.commit(args[1], null);
+                    repo().commit(args[1]);
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -46,7 +135,7 @@ public class Main {
             }
             case "rm" -> {
                 if (args.length == 2) {
-                    Repository.remove(args[1]);
+                    repo().remove(args[1]);
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -54,7 +143,11 @@ public class Main {
             }
             case "log" -> {
                 if (args.length == 1) {
-                    Repository.log();
+                    printLog(repo().log());
+                    break;
+                }
+                if (args.length == 3 && args[1].equals("--")) {
+                    printLog(repo().log(args[2]));
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -62,7 +155,7 @@ public class Main {
             }
             case "global-log" -> {
                 if (args.length == 1) {
-                    Repository.globalLog();
+                    printLog(repo().globalLog());
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -70,7 +163,13 @@ public class Main {
             }
             case "find" -> {
                 if (args.length == 2) {
-                    Repository.find(args[1]);
+                    List<String> ids = repo().find(args[1]);
+                    if (ids.isEmpty()) {
+                        System.out.println("Found no commit with that message.");
+                    }
+                    for (String id : ids) {
+                        System.out.println(id);
+                    }
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -78,7 +177,7 @@ public class Main {
             }
             case "status" -> {
                 if (args.length == 1) {
-                    Repository.status();
+                    System.out.println(repo().status());
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -86,15 +185,15 @@ public class Main {
             }
             case "checkout" -> {
                 if (args.length == 3 && args[1].equals("--")) {
-                    Repository.checkoutFile(args[2]);
+                    repo().checkoutFile(args[2]);
                     break;
                 }
                 if (args.length == 4 && args[2].equals("--")) {
-                    Repository.checkoutCommit(args[1], args[3]);
+                    repo().checkoutFile(args[1], args[3]);
                     break;
                 }
                 if (args.length == 2) {
-                    Repository.checkoutBranch(args[1]);
+                    repo().checkoutBranch(args[1]);
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -102,7 +201,15 @@ public class Main {
             }
             case "branch" -> {
                 if (args.length == 2) {
-                    Repository.branch(args[1]);
+                    repo().branch(args[1]);
+                    break;
+                }
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    GitletRepository repo = repo();
+                    String current = repo.currentBranch();
+                    for (String branch : repo.branchesContaining(args[2])) {
+                        System.out.println((branch.equals(current) ? "*" : "") + branch);
+                    }
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -110,7 +217,7 @@ public class Main {
             }
             case "rm-branch" -> {
                 if (args.length == 2) {
-                    Repository.rmBranch(args[1]);
+                    repo().removeBranch(args[1]);
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -118,7 +225,7 @@ public class Main {
             }
             case "reset" -> {
                 if (args.length == 2) {
-                    Repository.reset(args[1]);
+                    repo().reset(args[1]);
                     break;
                 }
                 System.out.println("Incorrect operands.");
@@ -126,7 +233,249 @@ public class Main {
             }
             case "merge" -> {
                 if (args.length == 2) {
-                    Repository.merge(args[1]);
+                    printMerge(repo().merge(args[1]), "Current branch fast-forwarded.",
+                            "Given branch is an ancestor of the current branch.");
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "cherry-pick" -> {
+                if (args.length == 2) {
+                    printMerge(repo().cherryPick(args[1]), null, null);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "rebase" -> {
+                if (args.length == 2) {
+                    printMerge(repo().rebase(args[1]), "Current branch fast-forwarded.",
+                            "Current branch is up to date.");
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "diff" -> {
+                int end = args.length;
+                String path = null;
+                if (args.length >= 2 && args[args.length - 2].equals("--")) {
+                    path = args[args.length - 1];
+                    end = args.length - 2;
+                }
+                if (end <= 3) {
+                    Writer out = new BufferedWriter(
+                            new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                    repo().diff(end > 1 ? args[1] : null, end > 2 ? args[2] : null, path, out);
+                    try {
+                        out.flush();
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "fsmonitor" -> {
+                if (args.length == 2 && args[1].equals("start")) {
+                    repo().startFsMonitor();
+                    break;
+                }
+                if (args.length == 2 && args[1].equals("stop")) {
+                    repo().stopFsMonitor();
+                    break;
+                }
+                if (args.length == 2 && args[1].equals("run")) {
+                    repo().run(FsMonitor::run);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "sparse-checkout" -> {
+                List<String> dirs = Arrays.asList(args).subList(Math.min(2, args.length),
+                        args.length);
+                if (args.length == 2 && args[1].equals("list")) {
+                    for (String dir : repo().sparseCheckoutList()) {
+                        System.out.println(dir);
+                    }
+                    break;
+                }
+                if (args.length == 2 && args[1].equals("disable")) {
+                    repo().sparseCheckoutDisable();
+                    break;
+                }
+                if (args.length >= 3 && args[1].equals("set")) {
+                    repo().sparseCheckoutSet(dirs);
+                    break;
+                }
+                if (args.length >= 3 && args[1].equals("add")) {
+                    repo().sparseCheckoutAdd(dirs);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "config" -> {
+                if (args.length == 2) {
+                    String value = repo().config(args[1]);
+                    if (value != null) {
+                        System.out.println(value);
+                    }
+                    break;
+                }
+                if (args.length == 3) {
+                    repo().config(args[1], args[2]);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "add-remote" -> {
+                if (args.length == 3) {
+                    repo().addRemote(args[1], args[2]);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "rm-remote" -> {
+                if (args.length == 2) {
+                    repo().removeRemote(args[1]);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "push" -> {
+                if (args.length == 3) {
+                    repo().push(args[1], args[2]);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "fetch" -> {
+                if (args.length == 3) {
+                    repo().fetch(args[1], args[2]);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "pull" -> {
+                if (args.length == 3) {
+                    printMerge(repo().pull(args[1], args[2]), "Current branch fast-forwarded.",
+                            "Given branch is an ancestor of the current branch.");
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "bundle" -> {
+                if ((args.length == 4 || args.length == 5) && args[1].equals("create")) {
+                    if (args.length == 4 || args[4].equals("--compress")) {
+                        repo().bundleCreate(args[2], args[3], args.length == 5);
+                        break;
+                    }
+                }
+                if (args.length == 3 && args[1].equals("unbundle")) {
+                    for (String branch : repo().unbundle(args[2])) {
+                        System.out.println("Not updating branch " + branch + ".");
+                    }
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "commit-graph" -> {
+                if (args.length == 2 && args[1].equals("write")) {
+                    repo().writeCommitGraph();
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "stash" -> {
+                if ((args.length == 2 || args.length == 3) && args[1].equals("push")) {
+                    repo().stashPush(args.length == 3 ? args[2] : null);
+                    break;
+                }
+                if (args.length == 2 && args[1].equals("pop")) {
+                    repo().stashPop();
+                    break;
+                }
+                if (args.length == 2 && args[1].equals("list")) {
+                    for (String stash : repo().stashList()) {
+                        System.out.println(stash);
+                    }
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "fsck" -> {
+                if (args.length == 1) {
+                    for (String problem : repo().fsck()) {
+                        System.out.println(problem);
+                    }
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "maintenance" -> {
+                if (args.length >= 2 && args[1].equals("run")) {
+                    boolean auto = false;
+                    List<String> tasks = null;
+                    long budget = -1;
+                    for (int i = 2; i < args.length; i += 1) {
+                        if (args[i].equals("--auto")) {
+                            auto = true;
+                        } else if (args[i].startsWith("--task=")) {
+                            tasks = tasks == null ? new ArrayList<>() : tasks;
+                            tasks.add(args[i].substring("--task=".length()));
+                        } else if (args[i].matches("--budget=\\d{1,18}")) {
+                            budget = Long.parseLong(args[i].substring("--budget=".length()));
+                        } else {
+                            System.out.println("Incorrect operands.");
+                            System.exit(0);
+                        }
+                    }
+                    repo().maintenance(auto, tasks, budget);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "archive" -> {
+                String format = null;
+                String output = null;
+                if (args.length == 3 || args.length == 5) {
+                    for (int i = 2; i < args.length; i += 1) {
+                        if (args[i].startsWith("--format=") && format == null) {
+                            format = args[i].substring("--format=".length());
+                        } else if (args[i].equals("-o") && i + 1 < args.length) {
+                            i += 1;
+                            output = args[i];
+                        } else {
+                            format = null;
+                            break;
+                        }
+                    }
+                }
+                if (format != null && (args.length == 3) == (output == null)) {
+                    archive(args[1], format, output);
+                    break;
+                }
+                System.out.println("Incorrect operands.");
+                System.exit(0);
+            }
+            case "blame" -> {
+                if (args.length == 2) {
+                    System.out.print(repo().blame(args[1]));
                     break;
                 }
                 System.out.println("Incorrect operands.");
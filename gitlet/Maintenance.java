@@ -0,0 +1,408 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Background upkeep of a repository. Each task keeps one thing from piling
+ *  up and slowing commands down, and estimates its backlog from something
+ *  cheap (a directory listing, a file header, two modification times), so
+ *  checking whether any task is due costs next to nothing:
+ *
+ *  loose-objects packs loose commits (see {@link PackedCommits});
+ *  commit-graph and bitmaps bring the commit graph and reachability bitmaps
+ *  up to date; commit-index writes the id and message index that log,
+ *  global-log and find read; prune deletes loose commits and blobs that no
+ *  ref or staged file reaches, and temporary files left by crashed
+ *  commands, once they are older than maintenance.pruneExpire seconds (two
+ *  weeks by default).
+ *
+ *  A run works through the due tasks in that order until its time budget
+ *  is spent; a task cut short leaves everything as it was, or, when
+ *  packing, packs what it got to, and the next run carries on. Maintenance
+ *  never holds the repository lock while it reads: it takes the lock
+ *  exclusive only to rename its files into place or delete objects, so
+ *  commands are never held up for longer than that. Only one maintenance
+ *  runs on a repository at a time; another skips its run.
+ *  @author Evelyn
+ */
+class Maintenance {
+    /** Config key that makes writing commands start maintenance when a task
+     *  is due. */
+    static final String AUTO_KEY = "maintenance.auto";
+    /** Config key for the time budget of a run, in milliseconds. */
+    static final String BUDGET_KEY = "maintenance.budget";
+    /** Config key for the age, in seconds, unreachable objects must reach
+     *  before prune deletes them. */
+    static final String EXPIRE_KEY = "maintenance.pruneExpire";
+
+    static final int DEFAULT_BUDGET = 5000;
+    private static final int DEFAULT_EXPIRE = 14 * 24 * 60 * 60;
+    /** Once there are this many packs, packing merges them all into one. */
+    private static final int MAX_PACKS = 8;
+
+    /** A maintenance task. */
+    enum Task {
+        PRUNE("prune", 1000),
+        LOOSE_OBJECTS("loose-objects", 100),
+        COMMIT_GRAPH("commit-graph", 50),
+        BITMAPS("bitmaps", 1),
+        COMMIT_INDEX("commit-index", 50);
+
+        private final String taskName;
+        /** The backlog at which an automatic run starts the task. */
+        private final int defaultThreshold;
+
+        Task(String taskName, int defaultThreshold) {
+            this.taskName = taskName;
+            this.defaultThreshold = defaultThreshold;
+        }
+
+        String taskName() {
+            return taskName;
+        }
+
+        /** Returns the task named NAME, or null. */
+        static Task forName(String name) {
+            for (Task t : values()) {
+                if (t.taskName.equals(name)) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        /** Returns true if this task has work to do; if AUTO, only if it has
+         *  at least maintenance.<name>.threshold worth of it. */
+        boolean due(boolean auto) {
+            int threshold = auto
+                    ? Config.getInt("maintenance." + taskName + ".threshold", defaultThreshold)
+                    : 1;
+            return backlog() >= Math.max(threshold, 1);
+        }
+
+        /** Returns a cheap estimate of the work this task has to do. */
+        private int backlog() {
+            switch (this) {
+                case PRUNE:
+                    return looseObjects() - lastPruneCount();
+                case LOOSE_OBJECTS:
+                    return looseCommits().size()
+                            + (PackedCommits.load(Repository.gitletDir()).packCount() >= MAX_PACKS
+                            ? 1 : 0);
+                case COMMIT_GRAPH:
+                    return commitCount() - CommitGraph.storedSize();
+                case BITMAPS:
+                    File graph = CommitGraph.graphPath();
+                    File bitmaps = Reachability.bitmapPath();
+                    return graph.isFile() && (!bitmaps.isFile()
+                            || bitmaps.lastModified() < graph.lastModified()) ? 1 : 0;
+                default:
+                    return commitCount() - CommitIndex.storedSize();
+            }
+        }
+
+        /** Does this task's work, stopping at DEADLINE, a time in
+         *  milliseconds. Returns false if it stopped short. */
+        private boolean run(long deadline) {
+            switch (this) {
+                case PRUNE:
+                    return prune(deadline);
+                case LOOSE_OBJECTS:
+                    return repack(deadline);
+                case COMMIT_GRAPH:
+                    CommitGraph.write();
+                    return true;
+                case BITMAPS:
+                    Reachability.write(Repository.refs().scan(RefTable.HEADS).values());
+                    return true;
+                default:
+                    CommitIndex.write();
+                    return true;
+            }
+        }
+    }
+
+    /** Returns the file that only the running maintenance holds locked. */
+    private static File lockPath() {
+        return join(Repository.gitletDir(), "maintenance.lock");
+    }
+
+    /** Returns the file recording how many loose objects the last prune
+     *  left. */
+    private static File lastPrunePath() {
+        return join(Repository.objectsFolder(), "info", "last-prune");
+    }
+
+    /** Returns the tasks that are due, automatically if AUTO. */
+    static List<Task> due(boolean auto) {
+        List<Task> tasks = new ArrayList<>();
+        for (Task t : Task.values()) {
+            if (t.due(auto)) {
+                tasks.add(t);
+            }
+        }
+        return tasks;
+    }
+
+    /** Runs TASKS, or every task that is due (automatically if AUTO) when
+     *  TASKS is null, within BUDGET milliseconds. Named tasks run whether or
+     *  not they are due. Returns the names of the tasks that ran to the end;
+     *  none if another maintenance is running. */
+    static List<String> run(boolean auto, List<Task> tasks, long budget) {
+        long deadline = System.currentTimeMillis() + budget;
+        List<String> done = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(lockPath().toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException excp) {
+                lock = null;
+            }
+            if (lock == null) {
+                return done;
+            }
+            for (Task t : Task.values()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    break;
+                }
+                boolean selected = tasks == null ? t.due(auto) : tasks.contains(t);
+                if (selected && t.run(deadline)) {
+                    done.add(t.taskName());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return done;
+    }
+
+    /** Starts "maintenance run --auto" in a process of its own, which
+     *  outlives this one. */
+    static void startProcess() {
+        String java = join(System.getProperty("java.home"), "bin", "java").getPath();
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp",
+                System.getProperty("java.class.path"), Main.class.getName(),
+                "maintenance", "run", "--auto");
+        pb.directory(Repository.cwd());
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            pb.start();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    //======================================================================
+    // Counting
+    //======================================================================
+
+    private static List<String> looseCommits() {
+        List<String> ids = plainFilenamesIn(Commit.commitsFolder());
+        return ids == null ? new ArrayList<>() : ids;
+    }
+
+    private static List<String> looseBlobs() {
+        List<String> ids = plainFilenamesIn(Repository.objectsFolder());
+        return ids == null ? new ArrayList<>() : ids;
+    }
+
+    private static int looseObjects() {
+        return looseCommits().size() + looseBlobs().size();
+    }
+
+    private static int commitCount() {
+        return looseCommits().size() + PackedCommits.load(Repository.gitletDir()).size();
+    }
+
+    private static int lastPruneCount() {
+        try {
+            return Integer.parseInt(readContentsAsString(lastPrunePath()).strip());
+        } catch (IllegalArgumentException excp) {
+            return 0;
+        }
+    }
+
+    //======================================================================
+    // Packing
+    //======================================================================
+
+    /** Packs as many loose commits as can be read before DEADLINE, and, if
+     *  there are too many packs, merges them into the new one. */
+    private static boolean repack(long deadline) {
+        File gitletDir = Repository.gitletDir();
+        PackedCommits packed = PackedCommits.load(gitletDir);
+        boolean merge = packed.packCount() >= MAX_PACKS;
+        List<String> loose = looseCommits();
+        List<String> ids = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        List<File> packedLoose = new ArrayList<>();
+
+        // 0. Read, without the lock: commits never change.
+        boolean finished = true;
+        for (String id : loose) {
+            if (System.currentTimeMillis() >= deadline) {
+                finished = false;
+                break;
+            }
+            if (merge && packed.contains(id)) {
+                packedLoose.add(join(Commit.commitsFolder(), id));
+                continue;
+            }
+            File f = join(Commit.commitsFolder(), id);
+            try {
+                contents.add(readContents(f));
+            } catch (IllegalArgumentException excp) {
+                continue;
+            }
+            ids.add(id);
+            packedLoose.add(f);
+        }
+        List<File> oldPacks = new ArrayList<>();
+        if (merge && finished) {
+            ArrayList<String> packedIds = new ArrayList<>();
+            packed.addIds(packedIds);
+            for (String id : new HashSet<>(packedIds)) {
+                ids.add(id);
+                contents.add(packed.read(id));
+            }
+            List<String> names = plainFilenamesIn(PackedCommits.packFolder(gitletDir));
+            for (String name : names == null ? new ArrayList<String>() : names) {
+                oldPacks.add(join(PackedCommits.packFolder(gitletDir), name));
+            }
+        }
+        if (ids.isEmpty()) {
+            return finished;
+        }
+
+        // 1. Write the pack, then delete what it replaces, under the lock.
+        byte[] pack = PackedCommits.encode(ids, contents, ObjectFormat.current());
+        File packFile = join(PackedCommits.packFolder(gitletDir),
+                ObjectFormat.current().hash(pack).hex() + ".pack");
+        Transaction tx = new Transaction();
+        tx.write(packFile, (Object) pack);
+        for (File f : packedLoose) {
+            tx.delete(f);
+        }
+        for (File f : oldPacks) {
+            if (!f.equals(packFile)) {
+                tx.delete(f);
+            }
+        }
+        LockManager.of(gitletDir).exclusive(() -> {
+            tx.commit();
+            return null;
+        });
+        return finished;
+    }
+
+    //======================================================================
+    // Pruning
+    //======================================================================
+
+    /** The commits and blobs reachable from the refs and stage. */
+    private static class Marks {
+        final HashSet<String> commits = new HashSet<>();
+        final HashSet<String> blobs = new HashSet<>();
+
+        /** Marks everything reachable from the current refs and stage, and
+         *  from the commits ROOTS, that is not marked yet. Returns false if
+         *  DEADLINE passed first. */
+        boolean mark(Collection<String> roots, long deadline) {
+            TreeMap<String, String> refs = Repository.refs().scan("");
+            blobs.addAll(Stage.getStage().getToBeAdded().values());
+            ArrayDeque<String> queue = new ArrayDeque<>(roots);
+            for (Map.Entry<String, String> ref : refs.entrySet()) {
+                if (!ref.getKey().equals(RefTable.HEAD)) {
+                    queue.add(ref.getValue());
+                }
+            }
+            while (!queue.isEmpty()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                String id = queue.poll();
+                if (!commits.add(id)) {
+                    continue;
+                }
+                Commit c = Commit.readCommit(id);
+                blobs.addAll(c.getFiles().values());
+                queue.addAll(c.getParents());
+            }
+            return true;
+        }
+    }
+
+    /** Deletes the loose commits and blobs that nothing reaches and that are
+     *  older than maintenance.pruneExpire, and transaction temporary files
+     *  as old. Packed commits, and so their blobs, are kept, and the
+     *  large-file store is left alone. */
+    private static boolean prune(long deadline) {
+        // 0. Mark, without the lock.
+        Marks marks = new Marks();
+        List<String> packed = new ArrayList<>();
+        PackedCommits.load(Repository.gitletDir()).addIds(packed);
+        if (!marks.mark(packed, deadline)) {
+            return false;
+        }
+
+        // 1. Under the lock, catch up with refs and stage changed meanwhile.
+        // Commits too new to prune keep their history too, so that no commit
+        // is left without its parents.
+        long expire = Config.getInt(EXPIRE_KEY, DEFAULT_EXPIRE) * 1000L;
+        long cutoff = System.currentTimeMillis() - expire;
+        return LockManager.of(Repository.gitletDir()).exclusive(() -> {
+            List<String> recent = new ArrayList<>();
+            for (String id : looseCommits()) {
+                if (join(Commit.commitsFolder(), id).lastModified() >= cutoff) {
+                    recent.add(id);
+                }
+            }
+            marks.mark(recent, Long.MAX_VALUE);
+
+            // 2. Delete what is still unmarked and old enough.
+            Transaction tx = new Transaction();
+            int kept = 0;
+            for (String id : looseCommits()) {
+                File f = join(Commit.commitsFolder(), id);
+                if (!marks.commits.contains(id) && f.lastModified() < cutoff) {
+                    tx.delete(f);
+                } else {
+                    kept += 1;
+                }
+            }
+            for (String id : looseBlobs()) {
+                File f = join(Repository.objectsFolder(), id);
+                if (!marks.blobs.contains(id) && f.lastModified() < cutoff) {
+                    tx.delete(f);
+                } else {
+                    kept += 1;
+                }
+            }
+            // 3. So do temporary files a command crashed before renaming.
+            File[] temps = join(Repository.gitletDir(), "tmp").listFiles();
+            for (File f : temps == null ? new File[0] : temps) {
+                if (f.getName().startsWith("write") && f.lastModified() < cutoff) {
+                    tx.delete(f);
+                }
+            }
+            tx.write(lastPrunePath(), kept + "\n");
+            tx.commit();
+            return true;
+        });
+    }
+}
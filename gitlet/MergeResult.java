@@ -0,0 +1,40 @@
+package gitlet;
+
+/** What a merge, pull, cherry-pick or rebase did.
+ *  @author Evelyn
+ */
+public class MergeResult {
+    /** The kinds of outcome. */
+    public enum Kind {
+        /** A new commit was made. */
+        MERGED,
+        /** The current branch was moved ahead to the given commit. */
+        FAST_FORWARD,
+        /** The current branch already had the given changes. */
+        UP_TO_DATE
+    }
+
+    private final Kind kind;
+    private final String head;
+    private final boolean conflicted;
+
+    MergeResult(Kind kind, String head, boolean conflicted) {
+        this.kind = kind;
+        this.head = head;
+        this.conflicted = conflicted;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** Returns the head commit of the current branch afterwards. */
+    public String getHead() {
+        return head;
+    }
+
+    /** Returns true if some file was committed with conflict markers. */
+    public boolean isConflicted() {
+        return conflicted;
+    }
+}
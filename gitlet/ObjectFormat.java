@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** The hash function a repository names its objects with. It is chosen at
+ *  init and recorded as core.objectFormat in the repository's config. Each
+ *  thread keeps one digest per format, so hashing never has to look up a
+ *  provider.
+ *  @author Evelyn
+ */
+enum ObjectFormat {
+    SHA1("sha1", "SHA-1", 20),
+    SHA256("sha256", "SHA-256", 32);
+
+    /** Config key naming the format of a repository. */
+    static final String CONFIG_KEY = "core.objectFormat";
+
+    /** The name used in config files and on the command line. */
+    private final String formatName;
+    /** The name of the JDK digest algorithm. */
+    private final String algorithm;
+    /** The number of bytes in a hash. */
+    private final int rawLength;
+    private final ThreadLocal<MessageDigest> digests;
+
+    ObjectFormat(String formatName, String algorithm, int rawLength) {
+        this.formatName = formatName;
+        this.algorithm = algorithm;
+        this.rawLength = rawLength;
+        this.digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support " + algorithm);
+            }
+        });
+    }
+
+    /** Returns the format named NAME, or null if there is none. */
+    static ObjectFormat forName(String name) {
+        for (ObjectFormat f : values()) {
+            if (f.formatName.equals(name)) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the format of the current repository. */
+    static ObjectFormat current() {
+        return checked(Config.get(CONFIG_KEY, SHA1.formatName));
+    }
+
+    /** Returns the format of the repository whose .gitlet directory is GITLETDIR. */
+    static ObjectFormat of(File gitletDir) {
+        return checked(Config.get(gitletDir, CONFIG_KEY, SHA1.formatName));
+    }
+
+    private static ObjectFormat checked(String name) {
+        ObjectFormat f = forName(name);
+        if (f == null) {
+            throw Utils.error("Unknown object format %s.", name);
+        }
+        return f;
+    }
+
+    String formatName() {
+        return formatName;
+    }
+
+    int rawLength() {
+        return rawLength;
+    }
+
+    /** The length of an id written in hex. */
+    int hexLength() {
+        return 2 * rawLength;
+    }
+
+    /** Returns a new digest of its own, for checksums computed over a stream
+     *  while other objects are hashed with {@link #hash}. */
+    MessageDigest newDigest() {
+        try {
+            return (MessageDigest) digests.get().clone();
+        } catch (CloneNotSupportedException excp) {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("System does not support " + algorithm);
+            }
+        }
+    }
+
+    /** Returns the hash of the concatenation of VALS, which may be any mixture
+     *  of byte arrays and Strings. */
+    ObjectId hash(Object... vals) {
+        MessageDigest md = digests.get();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to hash");
+            }
+        }
+        return ObjectId.fromRaw(md.digest());
+    }
+}
@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** The id of a gitlet object, held as the raw bytes of its hash (20 bytes
+ *  for SHA-1, 32 for SHA-256). Hex text is produced only when an id is
+ *  shown or used as a file name.
+ *  @author Evelyn
+ */
+final class ObjectId implements Comparable<ObjectId>, Serializable {
+    /** Fixed so that stored ids stay readable when methods are added. */
+    private static final long serialVersionUID = 8121432286553767373L;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] raw;
+
+    private ObjectId(byte[] raw) {
+        this.raw = raw;
+    }
+
+    /** Returns the id whose hash bytes are RAW. RAW is not copied. */
+    static ObjectId fromRaw(byte[] raw) {
+        return new ObjectId(raw);
+    }
+
+    /** Returns the id written as the hex string HEX, or null if HEX is not
+     *  an even-length string of hex digits. */
+    static ObjectId fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] raw = new byte[hex.length() / 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            raw[i] = (byte) ((hi << 4) | lo);
+        }
+        return new ObjectId(raw);
+    }
+
+    /** Returns the hex digits of RAW, using a lookup table. */
+    static String toHex(byte[] raw) {
+        char[] out = new char[raw.length * 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            out[2 * i] = HEX[(raw[i] >> 4) & 0xf];
+            out[2 * i + 1] = HEX[raw[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    /** Returns a copy of the hash bytes. */
+    byte[] toRaw() {
+        return raw.clone();
+    }
+
+    /** Returns the number of hash bytes. */
+    int length() {
+        return raw.length;
+    }
+
+    /** Returns the hex form of this id. */
+    String hex() {
+        return toHex(raw);
+    }
+
+    @Override
+    public String toString() {
+        return hex();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ObjectId && Arrays.equals(raw, ((ObjectId) o).raw);
+    }
+
+    @Override
+    public int hashCode() {
+        // The bytes are already uniformly distributed.
+        return (raw[0] & 0xff) << 24 | (raw[1] & 0xff) << 16
+                | (raw[2] & 0xff) << 8 | (raw[3] & 0xff);
+    }
+
+    @Override
+    public int compareTo(ObjectId o) {
+        return Arrays.compareUnsigned(raw, o.raw);
+    }
+}
@@ -0,0 +1,210 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** Moves objects between two gitlet repositories as one stream (a pack).
+ *  Only the commits the destination is missing are sent, found by walking
+ *  the commit graph from the tip and stopping at commits the destination
+ *  already has, together with the blobs of those commits it is missing.
+ *
+ *  A pack is a header, then one entry per object (a type byte, the object id,
+ *  its length and its bytes), an end marker and the hash of everything
+ *  before it. Ids are sent as raw hash bytes. Blobs come first and commits
+ *  are sent parents first, so an interrupted transfer never leaves a commit
+ *  whose objects are missing.
+ *  Received objects are written through a {@link Transaction}.
+ *  @author Evelyn
+ */
+class Pack {
+    private static final String MAGIC = "GITLETPACK";
+    private static final int VERSION = 2;
+    private static final byte END = 0;
+    private static final byte COMMIT = 1;
+    private static final byte BLOB = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The objects to send from SRC to DST for the history ending at TIP. */
+    static class Plan {
+        /** Commits missing in the destination, parents before children. */
+        final List<String> commits = new ArrayList<>();
+        /** Blobs of those commits that are missing in the destination. */
+        final LinkedHashSet<String> blobs = new LinkedHashSet<>();
+    }
+
+    /** Returns the objects reachable from TIP in the repository whose .gitlet
+     *  directory is SRC that the repository at DST does not have. */
+    static Plan plan(File src, File dst, String tip) {
+        return plan(src, tip, id -> Commit.exists(dst, id),
+                id -> join(dst, "objects", id).exists());
+    }
+
+    /** Returns the objects reachable from TIP in the repository whose .gitlet
+     *  directory is SRC, leaving out commits for which HASCOMMIT holds (and
+     *  their ancestors) and blobs for which HASBLOB holds. */
+    static Plan plan(File src, String tip, Predicate<String> hasCommit,
+                     Predicate<String> hasBlob) {
+        Plan plan = new Plan();
+
+        // 0. Depth-first walk that stops at commits the destination has, emitting
+        // each commit after all of its parents.
+        HashSet<String> visited = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        ArrayDeque<Commit> loaded = new ArrayDeque<>();
+        if (!hasCommit.test(tip)) {
+            stack.push(tip);
+            loaded.push(Commit.read(src, tip));
+            visited.add(tip);
+        }
+        ArrayDeque<Integer> next = new ArrayDeque<>();
+        next.push(0);
+        while (!stack.isEmpty()) {
+            Commit c = loaded.peek();
+            int i = next.pop();
+            if (i < c.getParents().size()) {
+                next.push(i + 1);
+                String parent = c.getParents().get(i);
+                if (visited.add(parent) && !hasCommit.test(parent)) {
+                    stack.push(parent);
+                    loaded.push(Commit.read(src, parent));
+                    next.push(0);
+                }
+                continue;
+            }
+            plan.commits.add(stack.pop());
+            loaded.pop();
+
+            // 1. Blobs of a missing commit that the destination does not have.
+            for (String blob : c.getFiles().values()) {
+                if (!plan.blobs.contains(blob) && !hasBlob.test(blob)) {
+                    plan.blobs.add(blob);
+                }
+            }
+        }
+        return plan;
+    }
+
+    /** Copies the objects in PLAN from SRC to DST as a single streamed pack,
+     *  as part of TX, a transaction on DST. The pack is produced on a separate
+     *  thread and consumed as it arrives. */
+    static void transfer(File src, Plan plan, File dst, Transaction tx) {
+        try {
+            PipedInputStream in = new PipedInputStream(BUFFER_SIZE);
+            PipedOutputStream out = new PipedOutputStream(in);
+            IOException[] failure = new IOException[1];
+            Thread writer = new Thread(() -> {
+                try (OutputStream o = out) {
+                    write(o, src, plan);
+                } catch (IOException excp) {
+                    failure[0] = excp;
+                }
+            });
+            writer.start();
+            try {
+                read(in, dst, tx);
+            } finally {
+                in.close();
+                writer.join();
+            }
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the objects in PLAN, read from SRC, to OUT as a pack. */
+    static void write(OutputStream out, File src, Plan plan) throws IOException {
+        ObjectFormat format = ObjectFormat.of(src);
+        MessageDigest md = format.newDigest();
+        DataOutputStream data = new DataOutputStream(
+                new DigestOutputStream(new BufferedOutputStream(out, BUFFER_SIZE), md));
+        data.writeUTF(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(format.formatName());
+        for (String blob : plan.blobs) {
+            writeEntry(data, BLOB, blob, readContents(join(src, "objects", blob)));
+        }
+        for (String commit : plan.commits) {
+            writeEntry(data, COMMIT, commit, Commit.readBytes(src, commit));
+        }
+        data.writeByte(END);
+        data.flush();
+        out.write(md.digest());
+        out.flush();
+    }
+
+    private static void writeEntry(DataOutputStream data, byte type, String id,
+                                   byte[] contents) throws IOException {
+        data.writeByte(type);
+        data.write(ObjectId.fromHex(id).toRaw());
+        data.writeInt(contents.length);
+        data.write(contents);
+    }
+
+    /** Reads a pack from IN into the repository whose .gitlet directory is
+     *  DST, as part of TX. Every object is checked against its id before it
+     *  is stored, and the trailing checksum is checked at the end. Returns
+     *  the number of objects read. */
+    static int read(InputStream in, File dst, Transaction tx) throws IOException {
+        ObjectFormat format = ObjectFormat.of(dst);
+        MessageDigest md = format.newDigest();
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        DataInputStream data = new DataInputStream(new DigestInputStream(buffered, md));
+        if (!MAGIC.equals(data.readUTF()) || data.readInt() != VERSION) {
+            throw error("Not a gitlet pack.");
+        }
+        if (!format.formatName().equals(data.readUTF())) {
+            throw error("Pack uses a different object format.");
+        }
+        int count = 0;
+        byte[] raw = new byte[format.rawLength()];
+        for (byte type = data.readByte(); type != END; type = data.readByte()) {
+            data.readFully(raw);
+            ObjectId id = ObjectId.fromRaw(raw.clone());
+            byte[] contents = new byte[data.readInt()];
+            data.readFully(contents);
+            if (!format.hash(contents).equals(id)) {
+                throw error("Corrupt object %s in pack.", id);
+            }
+            File target = type == COMMIT
+                    ? join(commitsFolder(dst), id.hex()) : join(dst, "objects", id.hex());
+            if (!target.exists() && (type != COMMIT || !Commit.exists(dst, id.hex()))) {
+                tx.write(target, (Object) contents);
+            }
+            count += 1;
+        }
+        byte[] expected = md.digest();
+        byte[] actual = new byte[expected.length];
+        new DataInputStream(buffered).readFully(actual);
+        if (!Arrays.equals(expected, actual)) {
+            throw error("Pack checksum mismatch.");
+        }
+        return count;
+    }
+
+    private static File commitsFolder(File gitletDir) {
+        return join(gitletDir, "objects", "commits");
+    }
+}
@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** The commits of a repository that maintenance has packed, in files under
+ *  .gitlet/objects/pack, so that a long history is a handful of files
+ *  instead of one per commit. Each pack starts with the sorted ids of its
+ *  commits and their offsets, which are read once and searched in memory;
+ *  a lookup then reads one commit with one seek. A pack is written whole
+ *  and renamed into place before the loose files it holds are deleted, so
+ *  a reader that misses a loose commit finds it packed.
+ *
+ *  Blobs are not packed: checkout copies, clones or links working files
+ *  straight from their blob files.
+ *  @author Evelyn
+ */
+class PackedCommits {
+    private static final String MAGIC = "GITLETCOMMITS";
+    private static final int VERSION = 1;
+
+    /** One pack file and its index. */
+    private static class PackFile {
+        final File file;
+        final ObjectId[] ids;
+        /** The offset of each commit, plus the end of the last one. */
+        final long[] offsets;
+
+        PackFile(File file, ObjectId[] ids, long[] offsets) {
+            this.file = file;
+            this.ids = ids;
+            this.offsets = offsets;
+        }
+    }
+
+    private final List<PackFile> packs;
+
+    private PackedCommits(List<PackFile> packs) {
+        this.packs = packs;
+    }
+
+    /** Returns the pack directory of the repository whose .gitlet directory
+     *  is GITLETDIR. */
+    static File packFolder(File gitletDir) {
+        return join(gitletDir, "objects", "pack");
+    }
+
+    /** Returns the packed commits of the repository whose .gitlet directory
+     *  is GITLETDIR, read again whenever a pack is added or removed. */
+    static PackedCommits load(File gitletDir) {
+        File folder = packFolder(gitletDir);
+        return GitletRepository.current().cached(folder, () -> read(folder));
+    }
+
+    /** Returns the packs in FOLDER, read now. */
+    static PackedCommits read(File folder) {
+        List<PackFile> packs = new ArrayList<>();
+        List<String> names = plainFilenamesIn(folder);
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(".pack")) {
+                    packs.add(readIndex(join(folder, name)));
+                }
+            }
+        }
+        return new PackedCommits(packs);
+    }
+
+    /** Returns the single pack FILE, read now. */
+    static PackedCommits readPack(File file) {
+        List<PackFile> packs = new ArrayList<>();
+        packs.add(readIndex(file));
+        return new PackedCommits(packs);
+    }
+
+    private static PackFile readIndex(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("Bad commit pack " + file.getName());
+            }
+            ObjectFormat format = ObjectFormat.forName(in.readUTF());
+            if (format == null) {
+                throw new IllegalArgumentException("Bad commit pack " + file.getName());
+            }
+            int n = in.readInt();
+            ObjectId[] ids = new ObjectId[n];
+            long[] offsets = new long[n + 1];
+            byte[] raw = new byte[format.rawLength()];
+            for (int i = 0; i < n; i += 1) {
+                in.readFully(raw);
+                ids[i] = ObjectId.fromRaw(raw.clone());
+            }
+            for (int i = 0; i <= n; i += 1) {
+                offsets[i] = in.readLong();
+            }
+            Stats.read(in.getFilePointer());
+            return new PackFile(file, ids, offsets);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of packed commits, counting each pack's copy. */
+    int size() {
+        int n = 0;
+        for (PackFile p : packs) {
+            n += p.ids.length;
+        }
+        return n;
+    }
+
+    /** Returns the number of pack files. */
+    int packCount() {
+        return packs.size();
+    }
+
+    /** Returns true if commit ID is packed. */
+    boolean contains(String id) {
+        ObjectId oid = ObjectId.fromHex(id);
+        for (PackFile p : packs) {
+            if (oid != null && Arrays.binarySearch(p.ids, oid) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Adds the id of every packed commit to OUT. */
+    void addIds(Collection<String> out) {
+        for (PackFile p : packs) {
+            for (ObjectId id : p.ids) {
+                out.add(id.hex());
+            }
+        }
+    }
+
+    /** Returns the serialized commit ID, or null if it is not packed. */
+    byte[] read(String id) {
+        ObjectId oid = ObjectId.fromHex(id);
+        if (oid == null) {
+            return null;
+        }
+        for (PackFile p : packs) {
+            int i = Arrays.binarySearch(p.ids, oid);
+            if (i < 0) {
+                continue;
+            }
+            try (RandomAccessFile in = new RandomAccessFile(p.file, "r")) {
+                byte[] contents = new byte[(int) (p.offsets[i + 1] - p.offsets[i])];
+                in.seek(p.offsets[i]);
+                in.readFully(contents);
+                Stats.read(contents.length);
+                return contents;
+            } catch (FileNotFoundException excp) {
+                // Merged into a new pack meanwhile.
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /** Returns a pack of the commits IDS, whose serialized forms are
+     *  CONTENTS, in the object format FORMAT. */
+    static byte[] encode(List<String> ids, List<byte[]> contents, ObjectFormat format) {
+        int n = ids.size();
+        Integer[] order = new Integer[n];
+        ObjectId[] oids = new ObjectId[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+            oids[i] = ObjectId.fromHex(ids.get(i));
+        }
+        Arrays.sort(order, (a, b) -> oids[a].compareTo(oids[b]));
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(format.formatName());
+            out.writeInt(n);
+            for (int i : order) {
+                out.write(oids[i].toRaw());
+            }
+            long offset = out.size() + 8L * (n + 1);
+            for (int i : order) {
+                out.writeLong(offset);
+                offset += contents.get(i).length;
+            }
+            out.writeLong(offset);
+            for (int i : order) {
+                out.write(contents.get(i));
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** Ancestry queries answered with reachability bitmaps. For a selection of
+ *  commits (branch heads and every {@value #SPACING}th commit down their
+ *  first-parent chains), .gitlet/objects/info/bitmaps holds the set of
+ *  commit-graph positions reachable from that commit. Collecting the
+ *  ancestors of a commit then walks only until it meets a selected commit,
+ *  whose whole history is added with one bitmap union.
+ *
+ *  The bitmaps are written alongside the commit graph and are ignored once
+ *  the graph is rewritten without them. Without either file, queries fall
+ *  back to plain walks.
+ *  @author Evelyn
+ */
+class Reachability {
+    static File bitmapPath() {
+        return join(Repository.objectsFolder(), "info", "bitmaps");
+    }
+
+    private static final String MAGIC = "GITLETBITMAPS";
+    private static final int VERSION = 1;
+    /** Distance between selected commits along a first-parent chain. */
+    private static final int SPACING = 64;
+
+    /** The commit graph, or null. */
+    private final CommitGraph graph;
+    /** Bitmaps of the selected commits, by graph position. */
+    private final HashMap<Integer, Bitmap> bitmaps;
+
+    private Reachability(CommitGraph graph, HashMap<Integer, Bitmap> bitmaps) {
+        this.graph = graph;
+        this.bitmaps = bitmaps;
+    }
+
+    /** Returns the ancestry index of the current repository. */
+    static Reachability load() {
+        CommitGraph graph = CommitGraph.load();
+        HashMap<Integer, Bitmap> bitmaps = graph == null ? null : readBitmaps(graph);
+        return new Reachability(graph, bitmaps == null ? new HashMap<>() : bitmaps);
+    }
+
+    /** The set of commits reachable from a tip, including the tip. */
+    static class Ancestors implements Predicate<String> {
+        private final CommitGraph graph;
+        /** Reachable commits in the graph, by position. */
+        private final Bitmap positions = new Bitmap();
+        /** Reachable commits made since the graph was written. */
+        private final HashSet<String> others = new HashSet<>();
+
+        private Ancestors(CommitGraph graph) {
+            this.graph = graph;
+        }
+
+        /** Returns true if commit ID is reachable. */
+        boolean contains(String id) {
+            int pos = graph == null ? -1 : graph.position(id);
+            return pos >= 0 ? positions.contains(pos) : others.contains(id);
+        }
+
+        @Override
+        public boolean test(String id) {
+            return contains(id);
+        }
+
+        /** Returns the number of reachable commits. */
+        int size() {
+            return positions.cardinality() + others.size();
+        }
+    }
+
+    /** Returns the ancestors of commit TIP. */
+    Ancestors ancestors(String tip) {
+        Ancestors result = new Ancestors(graph);
+        ArrayList<String> idStack = new ArrayList<>();
+        int[] posStack = new int[16];
+        int top = 0;
+        idStack.add(tip);
+
+        // 0. Commits outside the graph, by reading them.
+        while (!idStack.isEmpty()) {
+            String id = idStack.remove(idStack.size() - 1);
+            int pos = graph == null ? -1 : graph.position(id);
+            if (pos >= 0) {
+                if (top == posStack.length) {
+                    posStack = Arrays.copyOf(posStack, top * 2);
+                }
+                posStack[top++] = pos;
+            } else if (result.others.add(id)) {
+                idStack.addAll(Commit.readCommit(id).getParents());
+            }
+        }
+
+        // 1. Commits in the graph, by position, stopping at selected commits.
+        while (top > 0) {
+            int pos = posStack[--top];
+            if (result.positions.contains(pos)) {
+                continue;
+            }
+            Bitmap b = bitmaps.get(pos);
+            if (b != null) {
+                result.positions.or(b);
+                continue;
+            }
+            result.positions.add(pos);
+            for (int p : graph.parents(pos)) {
+                if (top == posStack.length) {
+                    posStack = Arrays.copyOf(posStack, top * 2);
+                }
+                posStack[top++] = p;
+            }
+        }
+        return result;
+    }
+
+    //======================================================================
+    // Reading and writing
+    //======================================================================
+
+    /** The bitmaps file as read, with the checksum of the graph it was
+     *  written for. */
+    private static class Stored {
+        final byte[] graphChecksum;
+        final HashMap<Integer, Bitmap> bitmaps;
+
+        Stored(byte[] graphChecksum, HashMap<Integer, Bitmap> bitmaps) {
+            this.graphChecksum = graphChecksum;
+            this.bitmaps = bitmaps;
+        }
+    }
+
+    private static HashMap<Integer, Bitmap> readBitmaps(CommitGraph graph) {
+        Stored stored = GitletRepository.current().cached(bitmapPath(), Reachability::read);
+        if (stored == null || !Arrays.equals(stored.graphChecksum, graph.checksum())) {
+            return null;
+        }
+        return stored.bitmaps;
+    }
+
+    private static Stored read() {
+        if (!bitmapPath().isFile()) {
+            return null;
+        }
+        ObjectFormat format = ObjectFormat.current();
+        byte[] data = readContents(bitmapPath());
+        int bodyLength = data.length - format.rawLength();
+        if (bodyLength < 0) {
+            return null;
+        }
+        MessageDigest md = format.newDigest();
+        md.update(data, 0, bodyLength);
+        if (!Arrays.equals(md.digest(), Arrays.copyOfRange(data, bodyLength, data.length))) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(data, 0, bodyLength));
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                return null;
+            }
+            byte[] graphChecksum = new byte[format.rawLength()];
+            in.readFully(graphChecksum);
+            HashMap<Integer, Bitmap> bitmaps = new HashMap<>();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                int pos = in.readInt();
+                bitmaps.put(pos, Bitmap.read(in));
+            }
+            return new Stored(graphChecksum, bitmaps);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Writes bitmaps for TIPS and their spaced first-parent ancestors over
+     *  the current commit graph. Returns the number of bitmaps written, or -1
+     *  if there is no commit graph. */
+    static int write(Collection<String> tips) {
+        CommitGraph graph = CommitGraph.load();
+        if (graph == null) {
+            return -1;
+        }
+
+        // 0. Select the commits, then order them so ancestors come first.
+        HashSet<Integer> selected = new HashSet<>();
+        for (String tip : tips) {
+            int pos = graph.position(tip);
+            for (int depth = 0; pos >= 0; depth += 1) {
+                if (depth % SPACING == 0 && !selected.add(pos) && depth > 0) {
+                    break;
+                }
+                int[] parents = graph.parents(pos);
+                pos = parents.length == 0 ? -1 : parents[0];
+            }
+        }
+        List<Integer> order = new ArrayList<>(selected);
+        order.sort((a, b) -> Integer.compare(graph.generation(a), graph.generation(b)));
+
+        // 1. Each bitmap reuses the bitmaps of the selected commits below it.
+        Reachability partial = new Reachability(graph, new HashMap<>());
+        for (int pos : order) {
+            partial.bitmaps.put(pos, partial.ancestors(graph.id(pos)).positions);
+        }
+
+        // 2. Serialize and checksum.
+        ObjectFormat format = ObjectFormat.current();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+            out.write(graph.checksum());
+            out.writeInt(order.size());
+            for (int pos : order) {
+                out.writeInt(pos);
+                partial.bitmaps.get(pos).write(out);
+            }
+            out.flush();
+            byte[] body = bytes.toByteArray();
+            Transaction tx = new Transaction();
+            tx.write(bitmapPath(), body, format.hash(body).toRaw());
+            tx.commit();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return order.size();
+    }
+}
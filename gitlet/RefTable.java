@@ -0,0 +1,314 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The refs of a repository (HEAD and the branches), kept in .gitlet/reftable
+ *  as a stack of immutable sorted tables. tables.list names the tables,
+ *  oldest first; a ref's value is the one in the newest table that has it.
+ *
+ *  Each table holds records sorted by name in blocks of about
+ *  {@value #BLOCK_SIZE} bytes, followed by an index of the first name in
+ *  each block, so a lookup reads the index (cached, since tables never
+ *  change) and one block. An update writes one new table with all of its
+ *  changes and a new tables.list, and takes effect when tables.list is
+ *  renamed into place. Before that, the new table is merged with the newest
+ *  tables while they are less than twice its size, which keeps the stack
+ *  logarithmic in the number of updates.
+ *
+ *  Repositories that still keep refs as files under refs/heads are
+ *  converted the first time they are opened.
+ *  @author Evelyn
+ */
+class RefTable {
+    /** The ref naming the current branch. */
+    static final String HEAD = "HEAD";
+    /** The prefix of branch refs. */
+    static final String HEADS = "refs/heads/";
+
+    private static final String MAGIC = "GITLETREFS";
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 4096;
+    /** Footer: index offset (long) and record count (int). */
+    private static final int FOOTER_SIZE = 12;
+    private static final byte VALUE = 0;
+    private static final byte DELETED = 1;
+
+    private final File folder;
+    /** The table file names, oldest first. */
+    private final List<String> names;
+
+    private RefTable(File folder, List<String> names) {
+        this.folder = folder;
+        this.names = names;
+    }
+
+    /** Returns the refs of the repository whose .gitlet directory is
+     *  GITLETDIR, converting loose ref files first if there are any. */
+    static RefTable open(File gitletDir) {
+        File folder = join(gitletDir, "reftable");
+        File list = join(folder, "tables.list");
+        if (!list.isFile()) {
+            RefTable refs = new RefTable(folder, new ArrayList<>());
+            if (join(gitletDir, HEAD).isFile()) {
+                refs.migrate(gitletDir);
+                return open(gitletDir);
+            }
+            return refs;
+        }
+        List<String> names = new ArrayList<>();
+        for (String line : readContentsAsString(list).split("\n")) {
+            if (!line.isEmpty()) {
+                names.add(line);
+            }
+        }
+        return new RefTable(folder, names);
+    }
+
+    /** Moves HEAD and the files under refs/heads of GITLETDIR into a table. */
+    private void migrate(File gitletDir) {
+        Transaction tx = new Transaction(gitletDir);
+        Update u = update();
+        File headFile = join(gitletDir, HEAD);
+        u.set(HEAD, readContentsAsString(headFile));
+        tx.delete(headFile);
+        File heads = join(gitletDir, "refs", "heads");
+        List<String> loose = plainFilenamesIn(heads);
+        if (loose != null) {
+            for (String branch : loose) {
+                u.set(HEADS + branch, readContentsAsString(join(heads, branch)));
+                tx.delete(join(heads, branch));
+            }
+        }
+        File[] remotes = heads.listFiles(File::isDirectory);
+        if (remotes != null) {
+            for (File remote : remotes) {
+                for (String branch : plainFilenamesIn(remote)) {
+                    u.set(HEADS + remote.getName() + "/" + branch,
+                            readContentsAsString(join(remote, branch)));
+                    tx.delete(join(remote, branch));
+                }
+            }
+        }
+        u.commit(tx);
+        tx.commit();
+    }
+
+    /** Returns the value of ref NAME, or null if there is none. */
+    String get(String name) {
+        for (int i = names.size() - 1; i >= 0; i -= 1) {
+            Table t = table(names.get(i));
+            TreeMap<String, String> found = new TreeMap<>();
+            if (t.scan(name, true, found)) {
+                return found.get(name);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the refs whose names start with PREFIX, in name order. */
+    TreeMap<String, String> scan(String prefix) {
+        TreeMap<String, String> refs = new TreeMap<>();
+        for (String name : names) {
+            table(name).scan(prefix, false, refs);
+        }
+        refs.values().removeIf(v -> v == null);
+        return refs;
+    }
+
+    /** Returns a new, empty batch of changes to these refs. */
+    Update update() {
+        return new Update();
+    }
+
+    private Table table(String name) {
+        File f = join(folder, name);
+        return GitletRepository.current().cached(f, () -> Table.read(f));
+    }
+
+    /** A batch of ref changes that are written together. */
+    class Update {
+        /** New values by name; null marks a deletion. */
+        private final TreeMap<String, String> changes = new TreeMap<>();
+
+        /** Sets ref NAME to VALUE. */
+        Update set(String name, String value) {
+            changes.put(name, value);
+            return this;
+        }
+
+        /** Deletes ref NAME. */
+        Update delete(String name) {
+            changes.put(name, null);
+            return this;
+        }
+
+        /** Adds the new table and table list to TX, merging in the newest
+         *  tables while they are less than twice the size of the new one. */
+        void commit(Transaction tx) {
+            if (changes.isEmpty()) {
+                return;
+            }
+            List<String> kept = new ArrayList<>(names);
+            String next = String.format("%08d.ref", kept.isEmpty() ? 1
+                    : Integer.parseInt(kept.get(kept.size() - 1).substring(0, 8)) + 1);
+            TreeMap<String, String> records = new TreeMap<>(changes);
+            while (!kept.isEmpty()) {
+                String last = kept.get(kept.size() - 1);
+                Table t = table(last);
+                if (t.recordCount > 2 * records.size()) {
+                    break;
+                }
+                TreeMap<String, String> merged = new TreeMap<>();
+                t.scan("", false, merged);
+                merged.putAll(records);
+                records = merged;
+                kept.remove(kept.size() - 1);
+                tx.delete(join(folder, last));
+            }
+            if (kept.isEmpty()) {
+                records.values().removeIf(v -> v == null);
+            }
+            kept.add(next);
+            tx.write(join(folder, next), (Object) Table.encode(records));
+            tx.write(join(folder, "tables.list"), String.join("\n", kept) + "\n");
+        }
+    }
+
+    /** The block index of one table file. */
+    private static class Table {
+        private final File file;
+        /** The first name in each block. */
+        private final String[] firstNames;
+        /** The offset of each block, plus the index offset at the end. */
+        private final long[] offsets;
+        private final int recordCount;
+
+        private Table(File file, String[] firstNames, long[] offsets, int recordCount) {
+            this.file = file;
+            this.firstNames = firstNames;
+            this.offsets = offsets;
+            this.recordCount = recordCount;
+        }
+
+        static byte[] encode(TreeMap<String, String> records) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeUTF(MAGIC);
+                out.writeInt(VERSION);
+                List<String> firstNames = new ArrayList<>();
+                List<Long> offsets = new ArrayList<>();
+                long blockStart = -1;
+                for (Map.Entry<String, String> e : records.entrySet()) {
+                    if (blockStart < 0 || out.size() - blockStart >= BLOCK_SIZE) {
+                        blockStart = out.size();
+                        firstNames.add(e.getKey());
+                        offsets.add(blockStart);
+                    }
+                    out.writeUTF(e.getKey());
+                    if (e.getValue() == null) {
+                        out.writeByte(DELETED);
+                    } else {
+                        out.writeByte(VALUE);
+                        out.writeUTF(e.getValue());
+                    }
+                }
+                long indexOffset = out.size();
+                out.writeInt(firstNames.size());
+                for (int i = 0; i < firstNames.size(); i += 1) {
+                    out.writeUTF(firstNames.get(i));
+                    out.writeLong(offsets.get(i));
+                }
+                out.writeLong(indexOffset);
+                out.writeInt(records.size());
+                out.flush();
+                return bytes.toByteArray();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        static Table read(File file) {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                    throw new IllegalArgumentException("Bad ref table " + file.getName());
+                }
+                in.seek(in.length() - FOOTER_SIZE);
+                long indexOffset = in.readLong();
+                int recordCount = in.readInt();
+                byte[] index = new byte[(int) (in.length() - FOOTER_SIZE - indexOffset)];
+                in.seek(indexOffset);
+                in.readFully(index);
+                Stats.read(index.length);
+                DataInputStream d = new DataInputStream(new ByteArrayInputStream(index));
+                int n = d.readInt();
+                String[] firstNames = new String[n];
+                long[] offsets = new long[n + 1];
+                for (int i = 0; i < n; i += 1) {
+                    firstNames[i] = d.readUTF();
+                    offsets[i] = d.readLong();
+                }
+                offsets[n] = indexOffset;
+                return new Table(file, firstNames, offsets, recordCount);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Adds to OUT the records named KEY (if EXACT) or starting with KEY
+         *  (otherwise), deletions as null values. Returns true if any were
+         *  found. Only the blocks that can hold them are read. */
+        boolean scan(String key, boolean exact, TreeMap<String, String> out) {
+            if (firstNames.length == 0) {
+                return false;
+            }
+            int block = Arrays.binarySearch(firstNames, key);
+            if (block < 0) {
+                block = Math.max(0, -block - 2);
+            }
+            boolean found = false;
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                in.seek(offsets[block]);
+                long end = exact ? offsets[block + 1] : offsets[offsets.length - 1];
+                byte[] data = new byte[(int) (end - offsets[block])];
+                in.readFully(data);
+                Stats.read(data.length);
+                DataInputStream d = new DataInputStream(new ByteArrayInputStream(data));
+                while (true) {
+                    String name;
+                    try {
+                        name = d.readUTF();
+                    } catch (EOFException excp) {
+                        break;
+                    }
+                    String value = d.readByte() == VALUE ? d.readUTF() : null;
+                    int cmp = exact ? name.compareTo(key) : 0;
+                    if (exact ? cmp > 0 : !name.startsWith(key) && name.compareTo(key) > 0) {
+                        break;
+                    }
+                    if (exact ? cmp == 0 : name.startsWith(key)) {
+                        out.put(name, value);
+                        found = true;
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/** Pairs deleted files with added files whose contents are the same or
+ *  similar. Identical blob ids are paired first. The remaining files get a
+ *  MinHash sketch of their lines, and sketches are bucketed by bands
+ *  (locality-sensitive hashing), so only files that share a bucket are ever
+ *  compared. The work is close to linear in the number of files.
+ *  @author Evelyn
+ */
+class RenameDetector {
+    /** Default minimum similarity, in percent. */
+    static final int DEFAULT_THRESHOLD = 50;
+
+    /** Number of MinHash values per sketch. */
+    private static final int HASHES = 64;
+    /** Sketch values per LSH band; HASHES / ROWS bands in total. */
+    private static final int ROWS = 2;
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        long x = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < HASHES; i += 1) {
+            x = mix(x + i);
+            SEEDS[i] = x;
+        }
+    }
+
+    /** Returns a map from each renamed path in DELETED to its new path in
+     *  ADDED. Both map file names to blob ids. Pairs must be at least
+     *  THRESHOLD percent similar. */
+    static HashMap<String, String> detect(Map<String, String> deleted,
+                                          Map<String, String> added, int threshold) {
+        HashMap<String, String> renames = new HashMap<>();
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return renames;
+        }
+
+        // 0. Exact renames: the same blob under a new name.
+        HashMap<String, List<String>> addedById = new HashMap<>();
+        for (String f : sorted(added.keySet())) {
+            addedById.computeIfAbsent(added.get(f), k -> new ArrayList<>()).add(f);
+        }
+        HashSet<String> used = new HashSet<>();
+        ArrayList<String> leftDeleted = new ArrayList<>();
+        for (String f : sorted(deleted.keySet())) {
+            List<String> same = addedById.get(deleted.get(f));
+            if (same != null && !same.isEmpty()) {
+                String to = same.remove(0);
+                renames.put(f, to);
+                used.add(to);
+            } else {
+                leftDeleted.add(f);
+            }
+        }
+        ArrayList<String> leftAdded = new ArrayList<>();
+        for (String f : sorted(added.keySet())) {
+            if (!used.contains(f)) {
+                leftAdded.add(f);
+            }
+        }
+        if (leftDeleted.isEmpty() || leftAdded.isEmpty() || threshold > 100) {
+            return renames;
+        }
+
+        // 1. Sketch the remaining files in parallel.
+        Map<String, long[]> sketches = new ConcurrentHashMap<>();
+        leftDeleted.parallelStream().forEach(GitletRepository.bind(
+                f -> putSketch(sketches, "-" + f, deleted.get(f))));
+        leftAdded.parallelStream().forEach(GitletRepository.bind(
+                f -> putSketch(sketches, "+" + f, added.get(f))));
+
+        // 2. Bucket the added files by band, then probe with the deleted ones.
+        HashMap<Long, List<String>> buckets = new HashMap<>();
+        for (String f : leftAdded) {
+            long[] s = sketches.get("+" + f);
+            if (s != null) {
+                for (int band = 0; band < HASHES / ROWS; band += 1) {
+                    buckets.computeIfAbsent(bandKey(s, band), k -> new ArrayList<>()).add(f);
+                }
+            }
+        }
+        ArrayList<Candidate> candidates = new ArrayList<>();
+        for (String from : leftDeleted) {
+            long[] s = sketches.get("-" + from);
+            if (s == null) {
+                continue;
+            }
+            HashSet<String> seen = new HashSet<>();
+            for (int band = 0; band < HASHES / ROWS; band += 1) {
+                List<String> bucket = buckets.get(bandKey(s, band));
+                if (bucket == null) {
+                    continue;
+                }
+                for (String to : bucket) {
+                    if (seen.add(to)) {
+                        int score = similarity(s, sketches.get("+" + to));
+                        if (score >= threshold) {
+                            candidates.add(new Candidate(from, to, score));
+                        }
+                    }
+                }
+            }
+        }
+
+        // 3. Take the best-scoring pairs first; each file is used at most once.
+        candidates.sort((a, b) -> a.score != b.score ? b.score - a.score
+                : a.from.equals(b.from) ? a.to.compareTo(b.to) : a.from.compareTo(b.from));
+        for (Candidate c : candidates) {
+            if (!renames.containsKey(c.from) && !used.contains(c.to)) {
+                renames.put(c.from, c.to);
+                used.add(c.to);
+            }
+        }
+        return renames;
+    }
+
+    /** A possible rename from FROM to TO with an estimated SCORE percent. */
+    private static class Candidate {
+        final String from;
+        final String to;
+        final int score;
+
+        Candidate(String from, String to, int score) {
+            this.from = from;
+            this.to = to;
+            this.score = score;
+        }
+    }
+
+    private static List<String> sorted(Set<String> keys) {
+        ArrayList<String> list = new ArrayList<>(keys);
+        Collections.sort(list);
+        return list;
+    }
+
+    private static void putSketch(Map<String, long[]> sketches, String key, String blobId) {
+        long[] s = sketch(readContents(join(Repository.objectsFolder(), blobId)));
+        if (s != null) {
+            sketches.put(key, s);
+        }
+    }
+
+    /** Returns the MinHash sketch of the lines of CONTENTS, or null if it has
+     *  no lines. Repeated lines are told apart by their occurrence count. */
+    static long[] sketch(byte[] contents) {
+        long[] s = new long[HASHES];
+        Arrays.fill(s, Long.MAX_VALUE);
+        HashMap<Long, Integer> counts = new HashMap<>();
+        boolean any = false;
+        int start = 0;
+        for (int i = 0; i <= contents.length; i += 1) {
+            if (i == contents.length || contents[i] == '\n') {
+                if (i > start || i < contents.length) {
+                    long h = 1125899906842597L;
+                    for (int j = start; j < i; j += 1) {
+                        h = 31 * h + contents[j];
+                    }
+                    int n = counts.merge(h, 1, Integer::sum);
+                    long shingle = mix(h + n * 0xC2B2AE3D27D4EB4FL);
+                    for (int k = 0; k < HASHES; k += 1) {
+                        long v = mix(shingle ^ SEEDS[k]);
+                        if (v < s[k]) {
+                            s[k] = v;
+                        }
+                    }
+                    any = true;
+                }
+                start = i + 1;
+            }
+        }
+        return any ? s : null;
+    }
+
+    /** Estimated Jaccard similarity of two sketches, in percent. */
+    static int similarity(long[] a, long[] b) {
+        int same = 0;
+        for (int i = 0; i < HASHES; i += 1) {
+            if (a[i] == b[i]) {
+                same += 1;
+            }
+        }
+        return same * 100 / HASHES;
+    }
+
+    private static long bandKey(long[] s, int band) {
+        long h = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i += 1) {
+            h = mix(h * 31 + s[i]);
+        }
+        return h;
+    }
+
+    /** A 64-bit finalizer (from SplitMix64) that spreads the bits of X. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -1,34 +1,54 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Predicate;
 
 import static gitlet.Utils.*;
 
 /**
  * Represents a gitlet repository.
- * Performs all operations from command line arguments.
+ * Performs all operations on the current repository (see GitletRepository),
+ * returning their results and throwing a GitletException when one cannot
+ * be done.
  * @author Evelyn
  */
 public class Repository {
+    /** How many times a lock-free read of the head is tried. */
+    private static final int SNAPSHOT_TRIES = 5;
 
     /**
-     * The current working directory.
+     * The working directory of the current repository.
      */
-    public static final File CWD = new File(System.getProperty("user.dir"));
+    static File cwd() {
+        return GitletRepository.current().workTree();
+    }
     /**
-     * The .gitlet directory.
+     * The .gitlet directory of the current repository.
      */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
+    static File gitletDir() {
+        return GitletRepository.current().gitletDir();
+    }
     /**
      * The object directory for storing commits and blobs
      */
-    static final File OBJECTS_FOLDER = join(GITLET_DIR, "objects");
+    static File objectsFolder() {
+        return join(gitletDir(), "objects");
+    }
     /**
-     * The refs directory for storing local and remote branches
+     * The remotes directory, with one file per remote holding its .gitlet path
      */
-    static final File HEADS_FOLDER = join(GITLET_DIR, "refs", "heads");
+    static File remotesFolder() {
+        return join(gitletDir(), "remotes");
+    }
 
     //======================================================================
     // Helper functions
@@ -39,77 +59,146 @@ public class Repository {
         d.mkdirs();
     }
 
-    private static void createFile(String filename, String fileContent) {
-        File filePath = new File(CWD, filename);
-        writeContents(filePath, fileContent);
+    /** Returns FILENAME as a path relative to the working directory with /
+     *  separators, as files are named in commits and the stage. Throws
+     *  MISSING, the command's message for a file it cannot find, if
+     *  FILENAME lies outside the working directory. */
+    private static String toPath(String filename, String missing) {
+        String path = WorkingTree.relativePath(filename);
+        if (path == null) {
+            throw error(missing);
+        }
+        return path;
+    }
+
+    private static void persistBlob(Transaction tx, byte[] contents, String fileId) {
+        File filePath = join(Repository.objectsFolder(), fileId);
+        if (!filePath.exists()) {
+            tx.write(filePath, (Object) contents);
+        }
     }
 
-    private static void persistBlob(File f, String fileId) {
-        File filePath = join(Commit.OBJECTS_FOLDER, fileId);
-        String fileContent = readContentsAsString(f);
-        writeContents(filePath, fileContent);
+    /** Returns the refs of the current repository. */
+    static RefTable refs() {
+        return RefTable.open(gitletDir());
     }
 
     public static String getActiveBranch() {
-        String head = readContentsAsString(join(Repository.GITLET_DIR, "HEAD"));
-        return head.substring("refs/heads".length() + 1);
+        return refs().get(RefTable.HEAD).substring(RefTable.HEADS.length());
+    }
+
+    /** Returns the head commit of BRANCH, or null if there is no such branch. */
+    static String getBranchHead(String branch) {
+        return refs().get(RefTable.HEADS + branch);
     }
 
-    private static void setActiveBranchPointer(String id) {
-        writeContents(join(HEADS_FOLDER, getActiveBranch()), id);
+    private static void setActiveBranchPointer(Transaction tx, String id) {
+        refs().update().set(RefTable.HEADS + getActiveBranch(), id).commit(tx);
+    }
+
+    /** Returns the names of all branches in the .gitlet directory GITLETDIR,
+     *  sorted. Branches fetched from a remote are listed as REMOTE/BRANCH. */
+    static List<String> listBranches(File gitletDir) {
+        List<String> branches = new ArrayList<>();
+        for (String ref : RefTable.open(gitletDir).scan(RefTable.HEADS).keySet()) {
+            branches.add(ref.substring(RefTable.HEADS.length()));
+        }
+        return branches;
+    }
+
+    /** Returns true if commit ANCESTOR is TIP or can be reached from TIP
+     *  through any parent links. */
+    private static boolean isAncestor(String ancestor, String tip) {
+        return Reachability.load().ancestors(tip).contains(ancestor);
+    }
+
+    /** Returns TIP and every commit reachable from it. */
+    private static Reachability.Ancestors getAncestors(String tip) {
+        return Reachability.load().ancestors(tip);
+    }
+
+    /** Returns the full id of the commit named by the id or prefix ID, or
+     *  null if no such commit exists. */
+    private static String resolveCommitId(String id) {
+        Set<String> commits = Commit.allIds();
+        if (id.length() < ObjectFormat.current().hexLength()) {
+            id = getCommitId(id);
+        }
+        return commits.contains(id) ? id : null;
+    }
+
+    /** Returns the files that would be committed right now: the head commit's
+     *  files with the staged additions and removals applied. */
+    private static HashMap<String, String> getIndexFiles() {
+        Stage stage = Stage.getStage();
+        HashMap<String, String> files
+                = Commit.readCommit(Commit.getCurrentCommitId()).getFiles();
+        files.putAll(stage.getToBeAdded());
+        for (String file : stage.getToBeRemoved()) {
+            files.remove(file);
+        }
+        return files;
     }
 
     //======================================================================
     // End of helper functions
     //======================================================================
 
-    public static void init() {
+    /** Creates a repository whose objects are named with FORMAT, which is the
+     *  name of an ObjectFormat, or null for the default. */
+    public static void init(String format) {
         // 0. Check if gitlet already exists.
-        if (Files.exists(GITLET_DIR.toPath())) {
-            System.out.println("A Gitlet version-control system "
+        if (Files.exists(gitletDir().toPath())) {
+            throw error("A Gitlet version-control system "
                     + "already exists in the current directory.");
-            return;
+        }
+        if (format != null && ObjectFormat.forName(format) == null) {
+            throw error("Unknown object format.");
         }
 
         // 1. Create .gitlet directory in CWD.
-        setupPersistence(GITLET_DIR);
+        setupPersistence(gitletDir());
+        if (format != null) {
+            Config.set(ObjectFormat.CONFIG_KEY, format);
+        }
 
         // 2. Create objects directory in .gitlet.
-        setupPersistence(Commit.COMMITS_FOLDER);
+        setupPersistence(Commit.commitsFolder());
 
         // 3. Make initial commit.
+        Transaction tx = new Transaction();
         Commit c = new Commit();
-        String id = c.persistCommit();
-
-        // 4. Create and persist master branch.
-        setupPersistence(HEADS_FOLDER);
-        writeContents(join(HEADS_FOLDER, "master"), id);
+        String id = c.persistCommit(tx);
 
-        // 5. Create and persist HEAD.
-        writeContents(join(GITLET_DIR, "HEAD"), join("refs", "heads", "master").toString());
+        // 4. Create master branch and point HEAD at it.
+        refs().update()
+                .set(RefTable.HEADS + "master", id)
+                .set(RefTable.HEAD, RefTable.HEADS + "master")
+                .commit(tx);
 
-        // 6. Create and persist stage.
-        new Stage().persistStage();
+        // 5. Create and persist stage.
+        new Stage().persistStage(tx);
+        tx.commit();
     }
 
     public static void add(String filename) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
-        }
-
         Stage stage = Stage.getStage();
-        List<String> files = plainFilenamesIn(CWD);
+        filename = toPath(filename, "File does not exist.");
+        File f = join(cwd(), filename);
 
         // 0. Check if file exists.
-        if (files == null || !files.contains(filename)) {
-            System.out.println("File does not exist.");
-            return;
+        if (!f.isFile()) {
+            throw error("File does not exist.");
+        }
+        SparseCheckout sparse = SparseCheckout.load();
+        if (sparse != null && !sparse.includes(filename)) {
+            throw error("File is outside the sparse checkout.");
         }
 
-        // 1. Get the SHA-1 string of current file.
-        File f = new File(CWD, filename);
-        String currentFileId = sha1(readContents(f));
+        // 1. Get the SHA-1 string of current file, or of a pointer to it if it
+        // goes to the large-file store.
+        byte[] contents = LargeFiles.offload(f);
+        String currentFileId = hashObject(contents);
 
         // 2. Check if identical to the version in current commit.
         String head = Commit.getCurrentCommitId();
@@ -117,10 +206,11 @@ public class Repository {
 
         // 3. If not identical, stage for addition. If exists in staging area, overwrite it;
         // If identical, unstage from toBeAdded if it's already there.
+        Transaction tx = new Transaction();
         if (committedFiles.get(filename) == null
                 || !committedFiles.get(filename).equals(currentFileId)) {
             stage.getToBeAdded().put(filename, currentFileId);
-            persistBlob(f, currentFileId);
+            persistBlob(tx, contents, currentFileId);
         } else {
             stage.getToBeAdded().remove(filename);
         }
@@ -130,29 +220,37 @@ public class Repository {
             stage.getToBeRemoved().remove(filename);
         }
 
-        // 6. Save stage to .gitlet directory.
-        stage.persistStage();
+        // 6. Save blob and stage to .gitlet directory.
+        stage.persistStage(tx);
+        tx.commit();
     }
 
-    public static void commit(String message, String secParentId) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
-        }
-
+    /** Commits the staged changes with MESSAGE and, if not null, SECPARENTID
+     *  as second parent. Returns the new commit's id. */
+    public static String commit(String message, String secParentId) {
         if (message.length() == 0) {
-            System.out.println("Please enter a commit message.");
-            return;
+            throw error("Please enter a commit message.");
         }
 
         Stage stage = Stage.getStage();
+        Transaction tx = new Transaction();
+        String id = commitStage(tx, stage, message, secParentId);
+        tx.commit();
+        return id;
+    }
+
+    /** Adds to TX a commit of STAGE on top of the current commit, with
+     *  MESSAGE and, if not null, SECPARENTID as second parent, then moves the
+     *  current branch to it and clears the stage. Returns the new commit's
+     *  id. */
+    private static String commitStage(Transaction tx, Stage stage, String message,
+                                      String secParentId) {
         HashMap<String, String> tobeAdded = stage.getToBeAdded();
         LinkedList<String> tobeRemoved = stage.getToBeRemoved();
 
         // 0. If no files have been staged, abort.
         if (tobeAdded.size() == 0 && tobeRemoved.size() == 0) {
-            System.out.println("No changes added to the commit.");
-            return;
+            throw error("No changes added to the commit.");
         }
 
         // 1. Set commit files.
@@ -171,20 +269,18 @@ public class Repository {
             parents.add(secParentId);
         }
         Commit newCommit = new Commit(message, parents, currentCommittedFiles);
-        String id = newCommit.persistCommit();
+        String id = newCommit.persistCommit(tx);
 
         // 3. Set branch pointer.
-        setActiveBranchPointer(id);
+        setActiveBranchPointer(tx, id);
 
         // 4. Clear staging area.
-        new Stage().persistStage();
+        new Stage().persistStage(tx);
+        return id;
     }
 
     public static void remove(String filename) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
-        }
+        filename = toPath(filename, "No reason to remove the file.");
 
         Stage stage = Stage.getStage();
         HashMap<String, String> tobeAdded = stage.getToBeAdded();
@@ -195,196 +291,392 @@ public class Repository {
 
         // 0. Neither staged nor tracked, no reason to remove.
         if (!tobeAdded.containsKey(filename) && !currentCommittedFiles.containsKey(filename)) {
-            System.out.println("No reason to remove the file.");
-            return;
+            throw error("No reason to remove the file.");
         }
 
         // 1. Unstage the file if it is currently staged for addition.
         tobeAdded.remove(filename);
-        stage.persistStage();
 
         // 2. Stage for removal if tracked in current commit, and remove from CWD.
-        if (currentCommittedFiles.containsKey(filename) && !tobeRemoved.contains(filename)) {
+        boolean untrack = currentCommittedFiles.containsKey(filename)
+                && !tobeRemoved.contains(filename);
+        if (untrack) {
             tobeRemoved.add(filename);
-            stage.persistStage();
-            restrictedDelete(filename);
+        }
+        Transaction tx = new Transaction();
+        stage.persistStage(tx);
+        tx.commit();
+        if (untrack) {
+            WorkingTree.delete(filename);
         }
     }
 
-    public static void log() {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
+    /** Returns the head commit's id without holding the repository lock. A
+     *  writer may merge away ref tables between reading their list and
+     *  reading them, in which case the list is read again. Everything the id
+     *  leads to is immutable, so history can then be read lock-free too. */
+    private static String snapshotHead() {
+        for (int tries = 1; ; tries += 1) {
+            try {
+                return Commit.getCurrentCommitId();
+            } catch (IllegalArgumentException excp) {
+                if (tries == SNAPSHOT_TRIES) {
+                    throw excp;
+                }
+            }
         }
-
-        printCommit(Commit.getCurrentCommitId());
     }
 
-    private static String printCommit(String id) {
-        Commit currentCommit = Commit.readCommit(id);
-        commitFormatter(id);
-        if (currentCommit.getParents().size() == 0) {
-            return null;
-        }
-        return printCommit(currentCommit.getParents().get(0));
+    /** Returns the commits from the head commit back to the initial one,
+     *  following first parents. */
+    public static List<CommitInfo> log() {
+        List<CommitInfo> commits = new ArrayList<>();
+        CommitIndex index = CommitIndex.load();
+        for (String id = snapshotHead(); id != null; ) {
+            CommitInfo commit = CommitIndex.info(index, id);
+            commits.add(commit);
+            id = commit.getParents().isEmpty() ? null : commit.getParents().get(0);
+        }
+        return commits;
     }
 
-    private static void commitFormatter(String id) {
-        Commit currentCommit = Commit.readCommit(id);
-        if (currentCommit.getParents().size() < 2) {
+    /** Like log, but only shows the commits that changed PATH relative to
+     *  their first parent. Commits covered by the commit graph are ruled out
+     *  by its changed-path filters without being read; only filter hits and
+     *  commits made since the graph was written are compared exactly. */
+    public static List<CommitInfo> log(String path) {
+        path = toPath(path, "File does not exist.");
+
+        List<CommitInfo> commits = new ArrayList<>();
+        CommitGraph graph = CommitGraph.load();
+        CommitIndex index = CommitIndex.load();
+        String id = nextChange(graph, snapshotHead(), path);
+        while (id != null) {
+            commits.add(CommitIndex.info(index, id));
+            id = nextChange(graph, firstParent(graph, id), path);
+        }
+        return commits;
+    }
 
-            System.out.printf("===\n"
-                            + "commit %s\n"
-                            + "Date: %s\n"
-                            + "%s\n\n",
-                    id, currentCommit.getDate(), currentCommit.getMessage());
-        } else {
-            System.out.printf("===\n"
-                            + "commit %s\n"
-                            + "Merge: %s %s\n"
-                            + "Date: %s\n"
-                            + "%s\n\n",
-                    id,
-                    currentCommit.getParents().get(0).substring(0, 7),
-                    currentCommit.getParents().get(1).substring(0, 7),
-                    currentCommit.getDate(),
-                    currentCommit.getMessage());
+    /** Returns the first parent of commit ID, or null if it has none. Uses
+     *  GRAPH, which may be null, when it covers ID. */
+    static String firstParent(CommitGraph graph, String id) {
+        int pos = graph == null ? -1 : graph.position(id);
+        if (pos >= 0) {
+            int[] parents = graph.parents(pos);
+            return parents.length == 0 ? null : graph.id(parents[0]);
         }
+        List<String> parents = Commit.readCommit(id).getParents();
+        return parents.isEmpty() ? null : parents.get(0);
+    }
 
+    /** Returns the first commit, starting at ID (which may be null) and
+     *  following first parents, whose version of PATH, a file or directory,
+     *  differs from its first parent's, or null if there is none. Commits
+     *  that GRAPH (which may be null) covers are ruled out by its
+     *  changed-path filters, which hold directories too, without being read;
+     *  only filter hits and commits it does not cover are compared. */
+    static String nextChange(CommitGraph graph, String id, String path) {
+        while (id != null) {
+            int pos = graph == null ? -1 : graph.position(id);
+            String parentId = firstParent(graph, id);
+            if (pos < 0 || graph.maybeChanged(pos, path)) {
+                HashMap<String, String> files = filesAt(Commit.readCommit(id).getFiles(), path);
+                HashMap<String, String> parentFiles = parentId == null
+                        ? new HashMap<>() : filesAt(Commit.readCommit(parentId).getFiles(), path);
+                if (!files.equals(parentFiles)) {
+                    return id;
+                }
+            }
+            id = parentId;
+        }
+        return null;
     }
 
-    public static void globalLog() {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
+    /** Returns the entries of FILES at PATH: the file PATH, or the files
+     *  anywhere under the directory PATH. */
+    private static HashMap<String, String> filesAt(HashMap<String, String> files, String path) {
+        HashMap<String, String> at = new HashMap<>();
+        String dir = path + "/";
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            if (e.getKey().equals(path) || e.getKey().startsWith(dir)) {
+                at.put(e.getKey(), e.getValue());
+            }
         }
+        return at;
+    }
 
-        List<String> files = plainFilenamesIn(Commit.COMMITS_FOLDER);
-        for (String file : files) {
-            readObject(join(Commit.COMMITS_FOLDER, file), Commit.class);
-            commitFormatter(file);
+    /** Returns each line of FILENAME as of the head commit, prefixed with the
+     *  commit that last changed it. */
+    public static String blame(String filename) {
+        filename = toPath(filename, "File does not exist in that commit.");
+
+        String head = Commit.getCurrentCommitId();
+        String[] origins = Blame.annotate(head, filename);
+        if (origins == null) {
+            throw error("File does not exist in that commit.");
         }
+
+        String fileId = Commit.readCommit(head).getFiles().get(filename);
+        Diff.Text text = Diff.Text.of(readContents(join(objectsFolder(), fileId)));
+        String lineFormat = "%" + Integer.toString(origins.length).length() + "d";
+        HashMap<String, String> dates = new HashMap<>();
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < origins.length; i += 1) {
+            String date = dates.computeIfAbsent(origins[i],
+                    id -> Commit.readCommit(id).getDate());
+            str.append(origins[i], 0, 7).append(" (").append(date).append(" ")
+                    .append(String.format(lineFormat, i + 1)).append(") ")
+                    .append(text.lines[i]).append("\n");
+        }
+        return str.toString();
     }
 
-    public static void find(String message) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
+    /** Writes the commit graph, reading only commits it does not cover yet. */
+    public static void commitGraphWrite() {
+        CommitGraph.write();
+        Reachability.write(refs().scan(RefTable.HEADS).values());
+    }
+
+    /** Returns every commit ever made, in no particular order. */
+    public static List<CommitInfo> globalLog() {
+        List<CommitInfo> commits = new ArrayList<>();
+        CommitIndex index = CommitIndex.load();
+        for (String id : Commit.allIds()) {
+            commits.add(CommitIndex.info(index, id));
         }
+        return commits;
+    }
 
-        List<String> files = plainFilenamesIn(Commit.COMMITS_FOLDER);
-        boolean haveFile = false;
-        for (String file : files) {
-            Commit commit = readObject(join(Commit.COMMITS_FOLDER, file), Commit.class);
-            if (commit.getMessage().equals(message)) {
-                haveFile = true;
-                System.out.println(file);
+    /** Returns the ids of the commits whose message is MESSAGE. */
+    public static List<String> find(String message) {
+        List<String> ids = new ArrayList<>();
+        CommitIndex index = CommitIndex.load();
+        for (String id : Commit.allIds()) {
+            if (CommitIndex.info(index, id).getMessage().equals(message)) {
+                ids.add(id);
             }
         }
-        if (!haveFile) {
-            System.out.println("Found no commit with that message.");
+        return ids;
+    }
+
+    public static Status status() {
+        // 0. Branches.
+        List<String> branches = listBranches(gitletDir());
+        String head = getActiveBranch();
+
+        // 1. Staged files.
+        WorkingTree tree = WorkingTree.scan();
+        Stage stage = tree.stage();
+        ArrayList<String> addFiles = new ArrayList<>(stage.getToBeAdded().keySet());
+        addFiles.sort(String::compareTo);
+
+        // 2. Removed files.
+        ArrayList<String> removeFiles = new ArrayList<>(stage.getToBeRemoved());
+        removeFiles.sort(String::compareTo);
+
+        // 3. Modified and untracked files.
+        Status status = new Status(head, branches, addFiles, removeFiles,
+                tree.modifications(), tree.untracked());
+        tree.save();
+        return status;
+    }
+
+    /** Returns the directories of the sparse checkout, sorted. */
+    public static List<String> sparseCheckoutList() {
+        SparseCheckout current = SparseCheckout.load();
+        if (current == null) {
+            throw error("Not a sparse checkout.");
         }
+        return new ArrayList<>(current.dirs());
     }
 
-    public static void status() {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
+    /** With "set" or "add", limits the working directory to DIRS, replacing
+     *  or adding to the current sparse checkout; with "disable", checks every
+     *  file out again. Files that enter the checkout are written and tracked
+     *  files that leave it are removed. */
+    public static void sparseCheckout(String action, List<String> dirs) {
+        // 0. Work out the new checkout.
+        SparseCheckout current = SparseCheckout.load();
+        if (current == null && action.equals("add")) {
+            throw error("Not a sparse checkout.");
+        }
+        SparseCheckout next;
+        switch (action) {
+            case "set" -> next = new SparseCheckout(dirs);
+            case "add" -> {
+                List<String> all = new ArrayList<>(current.dirs());
+                all.addAll(dirs);
+                next = new SparseCheckout(all);
+            }
+            case "disable" -> next = null;
+            default -> {
+                throw error("Incorrect operands.");
+            }
         }
-        StringBuilder str = new StringBuilder();
 
-        // 0. Print branches.
-        str.append("=== Branches ===\n");
-        List<String> branches = plainFilenamesIn(HEADS_FOLDER);
-        branches.sort(String::compareTo);
-        String head = getActiveBranch();
-        str.append("*").append(head).append("\n");
-        for (String branch : branches) {
-            if (!branch.equals(head)) {
-                str.append(branch).append("\n");
+        // 1. Tracked files leaving the checkout must match the head commit,
+        // and files entering it must not overwrite untracked files.
+        WorkingTree tree = WorkingTree.scan();
+        HashMap<String, String> head = tree.head();
+        HashMap<String, String> staged = tree.stage().getToBeAdded();
+        Stage changes = new Stage();
+        for (String file : staged.keySet()) {
+            if (next != null && !next.includes(file) && tree.contains(file)) {
+                throw error("There is a staged file outside the new sparse checkout; "
+                        + "commit it first.");
+            }
+        }
+        for (Map.Entry<String, String> e : head.entrySet()) {
+            String file = e.getKey();
+            boolean stays = next == null || next.includes(file);
+            if (!stays && tree.contains(file)) {
+                if (!e.getValue().equals(tree.hash(file))) {
+                    throw error("There is a modified file outside the new sparse "
+                            + "checkout; commit or restore it first.");
+                }
+                changes.getToBeRemoved().add(file);
+            } else if (stays && !tree.checkedOut(file)
+                    && !tree.stage().getToBeRemoved().contains(file)) {
+                if (join(cwd(), file).exists()) {
+                    throw error("There is an untracked file in the way; "
+                            + "delete it, or add and commit it first.");
+                }
+                changes.getToBeAdded().put(file, e.getValue());
             }
         }
 
-        // 1. Print staged files.
-        str.append("\n").append("=== Staged Files ===\n");
-        Stage stage = Stage.getStage();
-        HashMap<String, String> toBeAdded = stage.getToBeAdded();
-        ArrayList<String> addFiles = new ArrayList<>(toBeAdded.keySet());
-        addFiles.sort(String::compareTo);
-        for (String file : addFiles) {
-            str.append(file).append("\n");
+        // 2. Save the new checkout, then update the working directory. The
+        // monitor's saved file list no longer applies.
+        Transaction tx = new Transaction();
+        if (next == null) {
+            tx.delete(SparseCheckout.sparseFile());
+        } else {
+            tx.write(SparseCheckout.sparseFile(), String.join("\n", next.dirs()) + "\n");
         }
+        tx.delete(FsMonitor.stateFile());
+        tx.commit();
+        WorkingTree.apply(changes, null);
+    }
 
-        // 2. Print removed files.
-        str.append("\n").append("=== Removed Files ===\n");
-        LinkedList<String> removeFiles = stage.getToBeRemoved();
-        removeFiles.sort(String::compareTo);
-        for (String file : removeFiles) {
-            str.append(file).append("\n");
+    /** Returns the value of configuration KEY, or null if it is not set. */
+    public static String config(String key) {
+        if (key.equals(ObjectFormat.CONFIG_KEY)) {
+            return ObjectFormat.current().formatName();
         }
+        return Config.get(key, null);
+    }
 
-        // 3. Print modified files.
-        str.append("\n").append("=== Modifications Not Staged For Commit ===\n");
-        List<String> cwdFiles = plainFilenamesIn(CWD);
-        ArrayList<String> modifiedFiles = new ArrayList<>();
+    /** Sets configuration KEY to VALUE. */
+    public static void config(String key, String value) {
+        if (key.equals(ObjectFormat.CONFIG_KEY)) {
+            throw error("The object format is fixed at init.");
+        }
+        if (key.equals(WorkingTree.MATERIALIZE_KEY)
+                && WorkingTree.Materialize.forName(value) == null) {
+            throw error("Unknown materialize mode.");
+        }
+        Config.set(key, value);
+    }
 
-        // 3.1 Staged for addition, but deleted or modified in CWD.
-        for (String file : addFiles) {
-            if (!cwdFiles.contains(file)) {
-                modifiedFiles.add(file + " (deleted)");
-            } else if (!sha1(readContents(new File(CWD, file))).equals(toBeAdded.get(file))) {
-                modifiedFiles.add(file + " (modified)");
+    /** Writes to OUT a unified diff between two snapshots, limited to PATH if
+     *  it is not null. With no commits, compares the staged snapshot with the working
+     *  directory; with only FROM, compares that commit with the working
+     *  directory; with both, compares commit FROM with commit TO. */
+    public static void diff(String from, String to, String path, Writer out) {
+        // 0. Resolve both sides. A null file map stands for the working directory.
+        HashMap<String, String> oldFiles;
+        HashMap<String, String> newFiles = null;
+        if (from == null) {
+            oldFiles = getIndexFiles();
+        } else {
+            String fromId = resolveCommitId(from);
+            if (fromId == null) {
+                throw error("No commit with that id exists.");
             }
+            oldFiles = Commit.readCommit(fromId).getFiles();
         }
-        // 3.2 Tracked in current commit, changed in CWD but not staged for addition;
-        // 3.3 Tracked in current commit, deleted from CWD but not staged for removal.
-        HashMap<String, String> committedFiles
-                = Commit.readCommit(Commit.getCurrentCommitId()).getFiles();
-        LinkedList<String> committedKeys = new LinkedList<>(committedFiles.keySet());
-        for (String file : committedKeys) {
-            if (cwdFiles.contains(file)
-                    && !addFiles.contains(file)
-                    && !sha1(readContents(new File(CWD, file))).equals(committedFiles.get(file))) {
-                modifiedFiles.add(file + " (modified)");
-            }
-            if (!cwdFiles.contains(file) && !removeFiles.contains(file)) {
-                modifiedFiles.add(file + " (deleted)");
+        if (to != null) {
+            String toId = resolveCommitId(to);
+            if (toId == null) {
+                throw error("No commit with that id exists.");
             }
+            newFiles = Commit.readCommit(toId).getFiles();
+        }
+
+        // 1. Collect the paths to compare. The working directory side only
+        // covers tracked files, like the old side does.
+        TreeSet<String> paths = new TreeSet<>(oldFiles.keySet());
+        if (newFiles != null) {
+            paths.addAll(newFiles.keySet());
+        } else if (from != null) {
+            paths.addAll(getIndexFiles().keySet());
+        }
+        if (path != null) {
+            paths.retainAll(Collections.singleton(toPath(path, "File does not exist.")));
+        }
+
+        // 2. Diff the files in parallel and write them out in path order.
+        final HashMap<String, String> newSide = newFiles;
+        paths.parallelStream()
+                .map(GitletRepository.bindFunction(f -> diffFile(f, oldFiles.get(f), newSide)))
+                .forEachOrdered(text -> {
+                    try {
+                        out.write(text);
+                    } catch (IOException excp) {
+                        throw new UncheckedIOException(excp);
+                    }
+                });
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        modifiedFiles.sort(String::compareTo);
-        for (String file : modifiedFiles) {
-            str.append(file).append("\n");
-        }
+    }
 
-        // 4. Print untracked files.
-        str.append("\n").append("=== Untracked Files ===\n");
-        for (String file : cwdFiles) {
-            if (!addFiles.contains(file) && !committedFiles.containsKey(file)) {
-                str.append(file).append("\n");
+    /** Returns the unified diff of FILENAME between blob OLDID (null if absent)
+     *  and its version in NEWFILES, or in the working directory if NEWFILES is
+     *  null. Files whose ids match are skipped without being read. */
+    private static String diffFile(String filename, String oldId,
+                                   HashMap<String, String> newFiles) {
+        byte[] newContents = null;
+        if (newFiles == null) {
+            File f = join(cwd(), filename);
+            if (f.isFile()) {
+                newContents = LargeFiles.blob(f);
+                if (hashObject(newContents).equals(oldId)) {
+                    return "";
+                }
+            }
+        } else {
+            String newId = newFiles.get(filename);
+            if (Objects.equals(oldId, newId)) {
+                return "";
             }
+            if (newId != null) {
+                newContents = readContents(join(objectsFolder(), newId));
+            }
+        }
+        if (oldId == null && newContents == null) {
+            return "";
         }
-        System.out.println(str);
+        byte[] oldContents = oldId == null ? null : readContents(join(objectsFolder(), oldId));
+        return Diff.unified(filename, oldContents, newContents);
     }
 
     public static void checkoutFile(String filename) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
-        }
+        filename = toPath(filename, "File does not exist in that commit.");
 
         String fileId = Commit.readCommit(Commit.getCurrentCommitId()).getFiles().get(filename);
         if (fileId == null) {
-            System.out.println("File does not exist in that commit.");
-            return;
+            throw error("File does not exist in that commit.");
         }
 
-        String committedFileContent = readContentsAsString(join(OBJECTS_FOLDER, fileId));
-        restrictedDelete(filename);
-        createFile(filename, committedFileContent);
+        WorkingTree.checkOut(filename, fileId);
     }
 
     private static String getCommitId(String commitId) {
-        List<String> commits = plainFilenamesIn(Commit.COMMITS_FOLDER);
+        Set<String> commits = Commit.allIds();
         for (String commit : commits) {
             if (commit.contains(commitId)) {
                 commitId = commit;
@@ -393,229 +685,188 @@ public class Repository {
         return commitId;
     }
 
-    private static boolean hasUntrackedFile() {
-        List<String> cwdFiles = plainFilenamesIn(CWD);
-        HashMap<String, String> currentCommittedFiles
-                = Commit.readCommit(Commit.getCurrentCommitId()).getFiles();
-        Set<String> addFiles = Stage.getStage().getToBeAdded().keySet();
-        if (cwdFiles != null) {
-            for (String file : cwdFiles) {
-                if (!currentCommittedFiles.containsKey(file) && !addFiles.contains(file)) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    return true;
-                }
-            }
+    /** Fails if the scanned working directory TREE has untracked files,
+     *  which a change of commit could overwrite. */
+    private static void checkUntracked(WorkingTree tree) {
+        if (!tree.untracked().isEmpty()) {
+            throw error("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
         }
-        return false;
     }
 
-    private static void replaceFiles(String commitId) {
-        HashMap<String, String> currentCommittedFiles
-                = Commit.readCommit(Commit.getCurrentCommitId()).getFiles();
-        HashMap<String, String> addFile = Stage.getStage().getToBeAdded();
-        for (String file : currentCommittedFiles.keySet()) {
-            restrictedDelete(file);
-        }
-        for (String file : addFile.keySet()) {
-            restrictedDelete(file);
-        }
-
-        HashMap<String, String> targetCommittedFiles = Commit.readCommit(commitId).getFiles();
-        for (String file : targetCommittedFiles.keySet()) {
-            createFile(file,
-                    readContentsAsString(join(OBJECTS_FOLDER, targetCommittedFiles.get(file))));
-        }
+    /** Replaces the tracked and staged files in the scanned working directory
+     *  TREE with the files of commit COMMITID. Files that already match are
+     *  left alone. */
+    private static void replaceFiles(WorkingTree tree, String commitId) {
+        WorkingTree.write(tree.changesTo(Commit.readCommit(commitId).getFiles()), null);
     }
 
     public static void checkoutCommit(String commitId, String filename) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
-        }
+        filename = toPath(filename, "File does not exist in that commit.");
 
         // Turn prefix to commit id.
-        List<String> commits = plainFilenamesIn(Commit.COMMITS_FOLDER);
-        if (commitId.length() < UID_LENGTH) {
+        Set<String> commits = Commit.allIds();
+        if (commitId.length() < ObjectFormat.current().hexLength()) {
             commitId = getCommitId(commitId);
         }
 
         // If no commit with the given id exists.
         if (!commits.contains(commitId)) {
-            System.out.println("No commit with that id exists.");
-            return;
+            throw error("No commit with that id exists.");
         }
 
         // If the file does not exist in the given commit.
         String fileId = Commit.readCommit(commitId).getFiles().get(filename);
         if (fileId == null) {
-            System.out.println("File does not exist in that commit.");
-            return;
+            throw error("File does not exist in that commit.");
         }
 
-        String committedFileContent = readContentsAsString(join(OBJECTS_FOLDER, fileId));
-        restrictedDelete(filename);
-        createFile(filename, committedFileContent);
+        WorkingTree.checkOut(filename, fileId);
     }
 
     public static void checkoutBranch(String branch) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
-        }
-
         // If no branch with that name exists.
-        List<String> branches = plainFilenamesIn(HEADS_FOLDER);
-        if (!branches.contains(branch)) {
-            System.out.println("No such branch exists.");
-            return;
+        String commitId = getBranchHead(branch);
+        if (commitId == null) {
+            throw error("No such branch exists.");
         }
 
         // If that branch is the current branch.
         String currentBranch = getActiveBranch();
         if (currentBranch.equals(branch)) {
-            System.out.println("No need to checkout the current branch.");
-            return;
+            throw error("No need to checkout the current branch.");
         }
 
         // If a working file is untracked and would be overwritten by the checkout.
-        if (hasUntrackedFile()) {
-            return;
-        }
+        WorkingTree tree = WorkingTree.scan();
+        checkUntracked(tree);
 
         // Replace files in CWD.
-        String commitId = readContentsAsString(join(HEADS_FOLDER, branch));
-        replaceFiles(commitId);
+        replaceFiles(tree, commitId);
 
-        // Set the given branch active.
-        writeContents(join(GITLET_DIR, "HEAD"), join("refs", "heads", branch).toString());
-
-        // Clear staging area.
-        new Stage().persistStage();
+        // Set the given branch active and clear staging area.
+        Transaction tx = new Transaction();
+        refs().update().set(RefTable.HEAD, RefTable.HEADS + branch).commit(tx);
+        new Stage().persistStage(tx);
+        tx.commit();
     }
 
     public static void branch(String branch) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
-        }
-
-        List<String> branches = plainFilenamesIn(HEADS_FOLDER);
-        if (branches.contains(branch)) {
-            System.out.println("A branch with that name already exists.");
-            return;
+        if (getBranchHead(branch) != null) {
+            throw error("A branch with that name already exists.");
         }
 
         String head = Commit.getCurrentCommitId();
-        writeContents(join(HEADS_FOLDER, branch), head);
+        Transaction tx = new Transaction();
+        refs().update().set(RefTable.HEADS + branch, head).commit(tx);
+        tx.commit();
     }
 
-    public static void rmBranch(String branch) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
+    /** Returns the branches whose history contains COMMITID. */
+    public static List<String> branchContains(String commitId) {
+        String id = resolveCommitId(commitId);
+        if (id == null) {
+            throw error("No commit with that id exists.");
+        }
+
+        Reachability reach = Reachability.load();
+        List<String> branches = new ArrayList<>();
+        for (Map.Entry<String, String> ref : refs().scan(RefTable.HEADS).entrySet()) {
+            if (reach.ancestors(ref.getValue()).contains(id)) {
+                branches.add(ref.getKey().substring(RefTable.HEADS.length()));
+            }
         }
+        return branches;
+    }
 
+    public static void rmBranch(String branch) {
         // If a branch with the given name does not exist.
-        List<String> branches = plainFilenamesIn(HEADS_FOLDER);
-        if (!branches.contains(branch)) {
-            System.out.println("A branch with that name does not exist.");
-            return;
+        if (getBranchHead(branch) == null) {
+            throw error("A branch with that name does not exist.");
         }
 
         // Try to remove the currently active branch.
         if (getActiveBranch().equals(branch)) {
-            System.out.println("Cannot remove the current branch.");
-            return;
+            throw error("Cannot remove the current branch.");
         }
 
-        join(HEADS_FOLDER, branch).delete();
+        Transaction tx = new Transaction();
+        refs().update().delete(RefTable.HEADS + branch).commit(tx);
+        tx.commit();
     }
 
     public static void reset(String commitId) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
-        }
-
         // Turn prefix to commit id.
-        List<String> commits = plainFilenamesIn(Commit.COMMITS_FOLDER);
-        if (commitId.length() < UID_LENGTH) {
+        Set<String> commits = Commit.allIds();
+        if (commitId.length() < ObjectFormat.current().hexLength()) {
             commitId = getCommitId(commitId);
         }
 
         // If no commit with the given id exists.
         if (!commits.contains(commitId)) {
-            System.out.println("No commit with that id exists.");
-            return;
+            throw error("No commit with that id exists.");
         }
 
         // If CWD has untracked files.
-        if (hasUntrackedFile()) {
-            return;
-        }
+        WorkingTree tree = WorkingTree.scan();
+        checkUntracked(tree);
 
         // Replace files in current commit with target commit.
-        replaceFiles(commitId);
-
-        // Move current branch's head to target commit.
-        writeContents(join(HEADS_FOLDER, getActiveBranch()), commitId);
+        replaceFiles(tree, commitId);
 
-        // Clear staging area.
-        new Stage().persistStage();
+        // Move current branch's head to target commit and clear staging area.
+        Transaction tx = new Transaction();
+        setActiveBranchPointer(tx, commitId);
+        new Stage().persistStage(tx);
+        tx.commit();
     }
 
-    private static LinkedList<String> getAllCommitIds(String startingId) {
-        LinkedList<String> givenBranchCommits = new LinkedList<>();
-        givenBranchCommits.add(startingId);
-
-        while (Commit.readCommit(startingId).getParents().size() > 0) {
-            String parentId = Commit.readCommit(startingId).getParents().get(0);
-            givenBranchCommits.add(parentId);
-            startingId = parentId;
-        }
-
-        return givenBranchCommits;
+    public static MergeResult merge(String givenBranch) {
+        return merge(givenBranch, false);
     }
 
-    public static void merge(String givenBranch) {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            return;
-        }
+    /** Merges the branch REMOTE/BRANCH, just fetched, into the current
+     *  branch. Unlike merge, a fast-forward moves the current branch rather
+     *  than checking out the remote-tracking branch. */
+    public static MergeResult pull(String remote, String branch) {
+        return merge(remote + "/" + branch, true);
+    }
 
+    /** Merges GIVENBRANCH into the current branch. If the current branch is
+     *  behind, it is moved to GIVENBRANCH's head when FORWARD, and
+     *  GIVENBRANCH is checked out otherwise. */
+    private static MergeResult merge(String givenBranch, boolean forward) {
         // 0.1 Has untracked file in current commit.
-        if (hasUntrackedFile()) {
-            return;
-        }
+        WorkingTree tree = WorkingTree.scan();
+        checkUntracked(tree);
         // 0.2 If there are staged additions or removals present.
-        Stage stage = Stage.getStage();
+        Stage stage = tree.stage();
         if (stage.getToBeAdded().size() > 0 || stage.getToBeRemoved().size() > 0) {
-            System.out.println("You have uncommitted changes.");
-            return;
+            throw error("You have uncommitted changes.");
         }
 
         // 0.3 If a branch with the given name does not exist.
-        if (!plainFilenamesIn(HEADS_FOLDER).contains(givenBranch)) {
-            System.out.println("A branch with that name does not exist.");
-            return;
+        String givenBranchId = getBranchHead(givenBranch);
+        if (givenBranchId == null) {
+            throw error("A branch with that name does not exist.");
         }
 
         // 0.4 If attempting to merge a branch with itself.
-        String givenBranchId = readContentsAsString(join(HEADS_FOLDER, givenBranch));
         String currentBranch = getActiveBranch();
-        LinkedList<String> givenBranchCommits = getAllCommitIds(givenBranchId);
+        Reachability.Ancestors givenBranchCommits = getAncestors(givenBranchId);
         String currentBranchId = Commit.getCurrentCommitId();
         if (givenBranch.equals(currentBranch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            return;
+            throw error("Cannot merge a branch with itself.");
         }
 
         // 1. If the split point is the current branch.
         if (givenBranchCommits.contains(currentBranchId)) {
-            checkoutBranch(givenBranch);
-            System.out.println("Current branch fast-forwarded.");
-            return;
+            if (forward) {
+                reset(givenBranchId);
+            } else {
+                checkoutBranch(givenBranch);
+            }
+            return new MergeResult(MergeResult.Kind.FAST_FORWARD, givenBranchId, false);
         }
 
         // 2. Locate the split point.
@@ -623,20 +874,25 @@ public class Repository {
 
         // 3. If the split point is the same commit as the given branch.
         if (splitPoint.equals(givenBranchId)) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            return;
+            return new MergeResult(MergeResult.Kind.UP_TO_DATE, currentBranchId, false);
         }
 
-        // 4. Merge files in cb, gb and sp
-        mergeFiles(givenBranchId, currentBranchId, splitPoint);
+        // 4. Merge files in cb, gb and sp.
+        Transaction tx = new Transaction();
+        Set<String> conflicts = new HashSet<>();
+        Stage merged = mergeFiles(tx, givenBranchId, currentBranchId, splitPoint, conflicts);
 
-        // 5. Make a commit.
+        // 5. Update the working directory, then make a commit.
+        WorkingTree.write(merged, tx);
         String message = "Merged " + givenBranch + " into " + currentBranch + ".";
-        commit(message, givenBranchId);
+        String id = commitStage(tx, merged, message, givenBranchId);
+        tx.commit();
+        return new MergeResult(MergeResult.Kind.MERGED, id, !conflicts.isEmpty());
     }
 
-    private static String getSplitPoint(String commitId, LinkedList<String> givenBranchCommits) {
-        LinkedList<String> marked = new LinkedList<>();
+    private static String getSplitPoint(String commitId,
+                                        Reachability.Ancestors givenBranchCommits) {
+        HashSet<String> marked = new HashSet<>();
         LinkedList<String> fringe = Commit.readCommit(commitId).getParents();
         marked.add(commitId);
         marked.addAll(fringe);
@@ -647,19 +903,36 @@ public class Repository {
                 return v;
             }
             for (String parentId : Commit.readCommit(v).getParents()) {
-                if (!marked.contains(parentId)) {
+                if (marked.add(parentId)) {
                     fringe.addLast(parentId);
-                    marked.add(parentId);
                 }
             }
         }
         return null;
     }
 
-    private static void mergeFiles(String gbi, String cbi, String sp) {
-        HashMap<String, String> gbf = Commit.readCommit(gbi).getFiles();
-        HashMap<String, String> cbf = Commit.readCommit(cbi).getFiles();
-        HashMap<String, String> spf = Commit.readCommit(sp).getFiles();
+    /** Merges the files of the given branch head GBI into those of the
+     *  current branch head CBI, using the split point SP, without touching the
+     *  working directory. Returns the changes as a stage; conflicted files are
+     *  staged as new blobs whose contents are added to TX, and added to
+     *  CONFLICTS. */
+    private static Stage mergeFiles(Transaction tx, String gbi, String cbi, String sp,
+                                    Set<String> conflicts) {
+        return mergeTrees(tx, Commit.readCommit(sp).getFiles(),
+                Commit.readCommit(cbi).getFiles(), Commit.readCommit(gbi).getFiles(),
+                conflicts);
+    }
+
+    /** Three-way merges the file maps SPF (the base), CBF (ours) and GBF
+     *  (theirs), which are changed in place. Returns the changes to make to
+     *  CBF as a stage, adding conflict blobs to TX and conflicted files to
+     *  CONFLICTS. */
+    private static Stage mergeTrees(Transaction tx, HashMap<String, String> spf,
+                                    HashMap<String, String> cbf,
+                                    HashMap<String, String> gbf,
+                                    Set<String> conflicts) {
+        Stage merged = new Stage();
+        followRenames(merged, spf, cbf, gbf);
         HashSet<String> fileNames = new HashSet<>(gbf.keySet());
         fileNames.addAll(cbf.keySet());
         fileNames.addAll(spf.keySet());
@@ -671,17 +944,24 @@ public class Repository {
             }
             // Absent in sp and cb, present in gb.
             if (!spf.containsKey(f) && !cbf.containsKey(f) && gbf.containsKey(f)) {
-                checkoutCommit(gbi, f);
-                add(f);
+                stageMerged(merged, f, gbf.get(f));
                 continue;
             }
             // Removed in cb and gb, present in sp.
             if (!cbf.containsKey(f) && !gbf.containsKey(f)) {
                 continue;
             }
+            // Absent in sp, added in cb and gb: a conflict unless identical.
+            if (!spf.containsKey(f)) {
+                if (!cbf.get(f).equals(gbf.get(f))) {
+                    stageMerged(merged, f, resolveConflict(tx, cbf.get(f), gbf.get(f)));
+                    conflicts.add(f);
+                }
+                continue;
+            }
             // Unmodified in cb, removed in gb.
             if (spf.get(f).equals(cbf.get(f)) && !gbf.containsKey(f)) {
-                remove(f);
+                stageMerged(merged, f, null);
                 continue;
             }
             // Unmodified in gb, removed in cb.
@@ -690,8 +970,7 @@ public class Repository {
             }
             // Unmodified in cb, modified in gb.
             if (spf.get(f).equals(cbf.get(f)) && !spf.get(f).equals(gbf.get(f))) {
-                checkoutCommit(gbi, f);
-                add(f);
+                stageMerged(merged, f, gbf.get(f));
                 continue;
             }
             // Unmodified in gb, modified in cb.
@@ -703,27 +982,685 @@ public class Repository {
                 continue;
             }
             // Modified in different ways in gb and cb.
-            resolveConflict(cbf.get(f), gbf.get(f), f);
+            stageMerged(merged, f, resolveConflict(tx, cbf.get(f), gbf.get(f)));
+            conflicts.add(f);
+        }
+        return merged;
+    }
+
+    /** Records in MERGED that F becomes blob FILEID, or is removed if FILEID
+     *  is null. */
+    private static void stageMerged(Stage merged, String f, String fileId) {
+        if (fileId == null) {
+            merged.getToBeAdded().remove(f);
+            if (!merged.getToBeRemoved().contains(f)) {
+                merged.getToBeRemoved().add(f);
+            }
+        } else {
+            merged.getToBeRemoved().remove(f);
+            merged.getToBeAdded().put(f, fileId);
+        }
+    }
+
+    /** Lines up files renamed since the split point, so the per-file merge
+     *  sees one name for them. SPF, CBF and GBF are the file maps of the split
+     *  point, current branch and given branch, and are changed in place. A
+     *  rename made on the given branch is also recorded in MERGED. */
+    private static void followRenames(Stage merged,
+                                      HashMap<String, String> spf,
+                                      HashMap<String, String> cbf,
+                                      HashMap<String, String> gbf) {
+        int threshold = Config.getInt(Config.RENAME_THRESHOLD,
+                RenameDetector.DEFAULT_THRESHOLD);
+
+        // 0. Renamed in cb: the old name in sp and gb now goes by the new name.
+        for (Map.Entry<String, String> r : findRenames(spf, cbf, threshold).entrySet()) {
+            String from = r.getKey();
+            String to = r.getValue();
+            if (gbf.containsKey(from) && !gbf.containsKey(to)) {
+                gbf.put(to, gbf.remove(from));
+                spf.put(to, spf.remove(from));
+            }
+        }
+
+        // 1. Renamed in gb: the file moves in the merge result too.
+        for (Map.Entry<String, String> r : findRenames(spf, gbf, threshold).entrySet()) {
+            String from = r.getKey();
+            String to = r.getValue();
+            if (cbf.containsKey(from) && !cbf.containsKey(to)) {
+                stageMerged(merged, to, cbf.get(from));
+                stageMerged(merged, from, null);
+                cbf.put(to, cbf.remove(from));
+                spf.put(to, spf.remove(from));
+            }
         }
     }
 
-    private static void resolveConflict(String cbfi, String gbfi, String filename) {
-        System.out.println("Encountered a merge conflict.");
+    /** Returns the renames from the split point files SPF to the branch files BF. */
+    private static HashMap<String, String> findRenames(HashMap<String, String> spf,
+                                                       HashMap<String, String> bf,
+                                                       int threshold) {
+        HashMap<String, String> deleted = new HashMap<>();
+        HashMap<String, String> added = new HashMap<>();
+        for (String f : spf.keySet()) {
+            if (!bf.containsKey(f)) {
+                deleted.put(f, spf.get(f));
+            }
+        }
+        for (String f : bf.keySet()) {
+            if (!spf.containsKey(f)) {
+                added.put(f, bf.get(f));
+            }
+        }
+        return RenameDetector.detect(deleted, added, threshold);
+    }
+
+    /** Returns the id of a blob holding both sides of a conflict between the
+     *  blobs CBFI and GBFI, either of which may be null, and adds the blob to
+     *  TX. */
+    private static String resolveConflict(Transaction tx, String cbfi, String gbfi) {
         String cbf = "";
         String gbf = "";
         if (cbfi != null) {
-            cbf = readContentsAsString(join(OBJECTS_FOLDER, cbfi));
+            cbf = readContentsAsString(join(objectsFolder(), cbfi));
         }
         if (gbfi != null) {
-            gbf = readContentsAsString(join(OBJECTS_FOLDER, gbfi));
+            gbf = readContentsAsString(join(objectsFolder(), gbfi));
         }
         String fileContent = "<<<<<<< HEAD\n"
                 + cbf
                 + "=======\n"
                 + gbf
                 + ">>>>>>>\n";
-        File filePath = new File(CWD, filename);
-        writeContents(filePath, fileContent);
-        add(filename);
+        byte[] contents = fileContent.getBytes(StandardCharsets.UTF_8);
+        String id = hashObject(contents);
+        File blob = join(objectsFolder(), id);
+        if (!blob.exists()) {
+            tx.write(blob, (Object) contents);
+        }
+        return id;
+    }
+
+    public static MergeResult cherryPick(String commitId) {
+        // 0.1 Has untracked file in current commit.
+        WorkingTree tree = WorkingTree.scan();
+        checkUntracked(tree);
+        // 0.2 If there are staged additions or removals present.
+        Stage stage = tree.stage();
+        if (stage.getToBeAdded().size() > 0 || stage.getToBeRemoved().size() > 0) {
+            throw error("You have uncommitted changes.");
+        }
+        // 0.3 If no commit with the given id exists.
+        String id = resolveCommitId(commitId);
+        if (id == null) {
+            throw error("No commit with that id exists.");
+        }
+
+        // 1. Apply the commit's changes against its first parent to the head.
+        Commit picked = Commit.readCommit(id);
+        Transaction tx = new Transaction();
+        Set<String> conflicts = new HashSet<>();
+        Stage changes = mergeTrees(tx, parentFiles(picked),
+                Commit.readCommit(Commit.getCurrentCommitId()).getFiles(), picked.getFiles(),
+                conflicts);
+
+        // 2. Update the working directory, then commit with the same message.
+        WorkingTree.write(changes, tx);
+        String head = commitStage(tx, changes, picked.getMessage(), null);
+        tx.commit();
+        return new MergeResult(MergeResult.Kind.MERGED, head, !conflicts.isEmpty());
+    }
+
+    /** Replays the commits of the current branch since it split from BRANCH
+     *  on top of BRANCH. Each commit's changes are applied to the rewritten
+     *  file map in memory, and the working directory is updated once, at the
+     *  end. Commits whose changes are already present are dropped, and merge
+     *  commits are replayed as their changes against their first parent. A
+     *  commit that conflicts stops the rebase, which then changes nothing. */
+    public static MergeResult rebase(String branch) {
+        // 0.1 Has untracked file in current commit.
+        WorkingTree tree = WorkingTree.scan();
+        checkUntracked(tree);
+        // 0.2 If there are staged additions or removals present.
+        Stage stage = tree.stage();
+        if (stage.getToBeAdded().size() > 0 || stage.getToBeRemoved().size() > 0) {
+            throw error("You have uncommitted changes.");
+        }
+        // 0.3 If a branch with the given name does not exist.
+        String onto = getBranchHead(branch);
+        if (onto == null) {
+            throw error("A branch with that name does not exist.");
+        }
+        // 0.4 If attempting to rebase a branch onto itself.
+        if (branch.equals(getActiveBranch())) {
+            throw error("Cannot rebase a branch onto itself.");
+        }
+
+        String head = Commit.getCurrentCommitId();
+        Reachability.Ancestors upstream = getAncestors(onto);
+
+        // 1. If the current branch is behind the given branch.
+        if (upstream.contains(head)) {
+            reset(onto);
+            return new MergeResult(MergeResult.Kind.FAST_FORWARD, onto, false);
+        }
+
+        // 2. Collect the commits to replay, oldest first.
+        LinkedList<Commit> todo = new LinkedList<>();
+        for (String c = head; !upstream.contains(c); ) {
+            Commit commit = Commit.readCommit(c);
+            todo.addFirst(commit);
+            if (commit.getParents().isEmpty()) {
+                break;
+            }
+            c = commit.getParents().get(0);
+        }
+        LinkedList<String> firstParents = todo.getFirst().getParents();
+        if (!firstParents.isEmpty() && firstParents.get(0).equals(onto)) {
+            return new MergeResult(MergeResult.Kind.UP_TO_DATE, head, false);
+        }
+
+        // 3. Replay each commit's changes onto the rewritten files. A
+        // conflict stops the rebase before anything is changed, so that no
+        // conflict markers are committed into the rewritten history.
+        Transaction tx = new Transaction();
+        try {
+            Set<String> conflicts = new HashSet<>();
+            HashMap<String, String> files = Commit.readCommit(onto).getFiles();
+            HashMap<String, String> base = parentFiles(todo.getFirst());
+            String parent = onto;
+            for (Commit commit : todo) {
+                Stage changes = mergeTrees(tx, new HashMap<>(base),
+                        new HashMap<>(files), new HashMap<>(commit.getFiles()), conflicts);
+                if (!conflicts.isEmpty()) {
+                    throw error("Cannot rebase: \"%s\" conflicts with %s in %s.",
+                            commit.getMessage(), branch,
+                            String.join(", ", new TreeSet<>(conflicts)));
+                }
+                base = commit.getFiles();
+                if (changes.getToBeAdded().isEmpty() && changes.getToBeRemoved().isEmpty()) {
+                    continue;
+                }
+                files.putAll(changes.getToBeAdded());
+                files.keySet().removeAll(changes.getToBeRemoved());
+                LinkedList<String> parents = new LinkedList<>();
+                parents.add(parent);
+                parent = new Commit(commit.getMessage(), parents, new HashMap<>(files))
+                        .persistCommit(tx);
+            }
+
+            // 4. Update the working directory, move the branch and clear the stage.
+            WorkingTree.write(changedFiles(Commit.readCommit(head).getFiles(), files), tx);
+            setActiveBranchPointer(tx, parent);
+            new Stage().persistStage(tx);
+            tx.commit();
+            return new MergeResult(MergeResult.Kind.MERGED, parent, false);
+        } finally {
+            tx.abort();
+        }
+    }
+
+    /** Returns the files of the first parent of COMMIT, or none for a root
+     *  commit. */
+    private static HashMap<String, String> parentFiles(Commit commit) {
+        if (commit.getParents().isEmpty()) {
+            return new HashMap<>();
+        }
+        return Commit.readCommit(commit.getParents().get(0)).getFiles();
+    }
+
+    /** Returns the changes that turn the file map FROM into TO, as a stage. */
+    private static Stage changedFiles(HashMap<String, String> from,
+                                      HashMap<String, String> to) {
+        Stage changes = new Stage();
+        for (Map.Entry<String, String> e : to.entrySet()) {
+            if (!e.getValue().equals(from.get(e.getKey()))) {
+                changes.getToBeAdded().put(e.getKey(), e.getValue());
+            }
+        }
+        for (String f : from.keySet()) {
+            if (!to.containsKey(f)) {
+                changes.getToBeRemoved().add(f);
+            }
+        }
+        return changes;
+    }
+
+    //======================================================================
+    // Remotes
+    //======================================================================
+
+    public static void addRemote(String name, String path) {
+        File remote = join(remotesFolder(), name);
+        if (remote.exists()) {
+            throw error("A remote with that name already exists.");
+        }
+        setupPersistence(remotesFolder());
+        writeContents(remote, path.replace("/", File.separator));
+    }
+
+    public static void rmRemote(String name) {
+        File remote = join(remotesFolder(), name);
+        if (!remote.exists()) {
+            throw error("A remote with that name does not exist.");
+        }
+        remote.delete();
+    }
+
+    /** Returns the .gitlet directory of remote NAME, failing if the remote
+     *  is unknown or its directory is missing. */
+    static File getRemoteDir(String name) {
+        File remote = join(remotesFolder(), name);
+        if (!remote.exists()) {
+            throw error("A remote with that name does not exist.");
+        }
+        File dir = new File(readContentsAsString(remote));
+        if (!dir.isAbsolute()) {
+            dir = join(cwd(), dir.getPath());
+        }
+        if (!dir.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        return dir;
+    }
+
+    public static void push(String remoteName, String remoteBranch) {
+        File remoteDir = getRemoteDir(remoteName);
+
+        if (ObjectFormat.of(remoteDir) != ObjectFormat.current()) {
+            throw error("Remote uses a different object format.");
+        }
+
+        // 0. The remote branch must already be in the history of our head.
+        String head = Commit.getCurrentCommitId();
+        RefTable remoteRefs = RefTable.open(remoteDir);
+        String remoteHead = remoteRefs.get(RefTable.HEADS + remoteBranch);
+        if (remoteHead != null) {
+            if (!Commit.exists(gitletDir(), remoteHead)
+                    || !isAncestor(remoteHead, head)) {
+                throw error("Please pull down remote changes before pushing.");
+            }
+        }
+
+        // 1. Send the missing objects, then move the remote branch.
+        Transaction tx = new Transaction(remoteDir);
+        try {
+            Pack.transfer(gitletDir(), Pack.plan(gitletDir(), remoteDir, head), remoteDir, tx);
+            remoteRefs.update().set(RefTable.HEADS + remoteBranch, head).commit(tx);
+            tx.commit();
+        } finally {
+            tx.abort();
+        }
+    }
+
+    public static void fetch(String remoteName, String remoteBranch) {
+        File remoteDir = getRemoteDir(remoteName);
+        if (ObjectFormat.of(remoteDir) != ObjectFormat.current()) {
+            throw error("Remote uses a different object format.");
+        }
+        String remoteHead = RefTable.open(remoteDir).get(RefTable.HEADS + remoteBranch);
+        if (remoteHead == null) {
+            throw error("That remote does not have that branch.");
+        }
+
+        // 0. Receive the missing objects.
+        Transaction tx = new Transaction();
+        try {
+            Pack.transfer(remoteDir, Pack.plan(remoteDir, gitletDir(), remoteHead),
+                    gitletDir(), tx);
+
+            // 1. Point REMOTE/BRANCH at the fetched head.
+            refs().update().set(RefTable.HEADS + remoteName + "/" + remoteBranch, remoteHead)
+                    .commit(tx);
+            tx.commit();
+        } finally {
+            tx.abort();
+        }
+    }
+
+    //======================================================================
+    // Stash
+    //======================================================================
+
+    /** The prefix of stash refs. Each is the number of the stash, padded so
+     *  that refs sort oldest first, and names the commit of the working
+     *  directory, whose parents are the head commit and a commit of the
+     *  stage. Being refs, stashes keep their objects from being pruned. */
+    static final String STASH = "refs/stash/";
+
+    /** Saves the staged changes and the working directory, untracked files
+     *  included, as two commits under a new stash ref, described by MESSAGE
+     *  if not null, then resets the stage and working directory to the head
+     *  commit. Only working files that differ from every stored blob are
+     *  read and stored; the rest are known by their hashes alone. */
+    public static void stashPush(String message) {
+        // 0. The stage as a commit on top of the head commit.
+        WorkingTree tree = WorkingTree.scan();
+        Stage stage = tree.stage();
+        String head = Commit.getCurrentCommitId();
+        HashMap<String, String> staged = new HashMap<>(tree.head());
+        staged.putAll(stage.getToBeAdded());
+        for (String file : stage.getToBeRemoved()) {
+            staged.remove(file);
+        }
+
+        // 1. The working directory, file by file, from the cached hashes.
+        // Files staged for removal but present again count as untracked.
+        List<String> untracked = new ArrayList<>(tree.untracked());
+        for (String file : stage.getToBeRemoved()) {
+            if (tree.contains(file)) {
+                untracked.add(file);
+            }
+        }
+        tree.hashAll(staged.keySet());
+        tree.hashAll(untracked);
+        HashMap<String, String> working = new HashMap<>();
+        for (Map.Entry<String, String> e : staged.entrySet()) {
+            String file = e.getKey();
+            if (!tree.checkedOut(file)) {
+                working.put(file, e.getValue());
+            } else if (tree.contains(file)) {
+                working.put(file, tree.hash(file));
+            }
+        }
+        for (String file : untracked) {
+            working.put(file, tree.hash(file));
+        }
+        if (staged.equals(tree.head()) && working.equals(tree.head())) {
+            throw error("No local changes to save.");
+        }
+
+        // 2. Store the blobs nothing stores yet, the two commits and the ref.
+        Transaction tx = new Transaction();
+        for (Map.Entry<String, String> e : working.entrySet()) {
+            if (!join(objectsFolder(), e.getValue()).exists()) {
+                File f = join(cwd(), e.getKey());
+                persistBlob(tx, LargeFiles.offload(f), e.getValue());
+            }
+        }
+        String branch = getActiveBranch();
+        String subject = message != null ? "On " + branch + ": " + message
+                : "WIP on " + branch + ": " + head.substring(0, 7) + " "
+                        + Commit.readCommit(head).getMessage();
+        LinkedList<String> indexParents = new LinkedList<>(List.of(head));
+        String index = new Commit("index on " + branch + ": " + head.substring(0, 7),
+                indexParents, staged).persistCommit(tx);
+        LinkedList<String> parents = new LinkedList<>(List.of(head, index));
+        String id = new Commit(subject, parents, working).persistCommit(tx);
+        TreeMap<String, String> stashes = refs().scan(STASH);
+        long next = stashes.isEmpty()
+                ? 0 : Long.parseLong(stashes.lastKey().substring(STASH.length())) + 1;
+        refs().update().set(STASH + String.format("%010d", next), id).commit(tx);
+        new Stage().persistStage(tx);
+        tx.commit();
+
+        // 3. Back to the head commit, deleting the stashed untracked files.
+        Stage changes = tree.changesTo(tree.head());
+        changes.getToBeRemoved().addAll(untracked);
+        WorkingTree.write(changes, null);
+    }
+
+    /** Returns the stashes, newest first, as "stash@{N}: MESSAGE". */
+    public static List<String> stashList() {
+        List<String> list = new ArrayList<>();
+        List<String> ids = new ArrayList<>(refs().scan(STASH).values());
+        for (int i = ids.size() - 1; i >= 0; i -= 1) {
+            list.add("stash@{" + list.size() + "}: "
+                    + Commit.readCommit(ids.get(i)).getMessage());
+        }
+        return list;
+    }
+
+    /** Applies the newest stash to the stage and working directory and
+     *  drops it. The stash's changes are replayed on the head commit, which
+     *  may have moved since: a file the stash changed is taken from the
+     *  stash if the head commit still has the version the stash started
+     *  from. Only the files that end up different are written, in parallel,
+     *  as checkout writes them. */
+    public static void stashPop() {
+        TreeMap<String, String> stashes = refs().scan(STASH);
+        if (stashes.isEmpty()) {
+            throw error("No stash entries found.");
+        }
+        String ref = stashes.lastKey();
+        Commit stash = Commit.readCommit(stashes.get(ref));
+        HashMap<String, String> base = Commit.readCommit(stash.getParents().get(0)).getFiles();
+        HashMap<String, String> index = Commit.readCommit(stash.getParents().get(1)).getFiles();
+
+        // 0. Nothing may be staged, and the files the stash writes must be
+        // as the head commit has them. Other local changes are kept.
+        WorkingTree tree = WorkingTree.scan();
+        Stage stage = tree.stage();
+        if (stage.getToBeAdded().size() > 0 || stage.getToBeRemoved().size() > 0) {
+            throw error("You have uncommitted changes.");
+        }
+        HashMap<String, String> head = tree.head();
+        HashMap<String, String> staged = replay(base, index, head);
+        HashMap<String, String> working = replay(base, stash.getFiles(), head);
+        if (staged == null || working == null) {
+            throw error("The stash conflicts with the current commit; "
+                    + "check out the commit it was made on first.");
+        }
+        Stage changes = new Stage();
+        Stage all = tree.changesTo(working);
+        for (Map.Entry<String, String> e : all.getToBeAdded().entrySet()) {
+            if (!e.getValue().equals(head.get(e.getKey()))) {
+                changes.getToBeAdded().put(e.getKey(), e.getValue());
+            }
+        }
+        for (String file : all.getToBeRemoved()) {
+            if (head.containsKey(file)) {
+                changes.getToBeRemoved().add(file);
+            }
+        }
+        for (String file : tree.untracked()) {
+            if (changes.getToBeAdded().containsKey(file)) {
+                throw error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+            }
+        }
+        for (String file : tree.modifications().keySet()) {
+            if (changes.getToBeAdded().containsKey(file)
+                    || changes.getToBeRemoved().contains(file)) {
+                throw error("Your local changes would be overwritten by the stash; "
+                        + "commit them first.");
+            }
+        }
+
+        // 1. Write the files, then restore the stage and drop the stash.
+        WorkingTree.write(changes, null);
+        Stage restored = new Stage();
+        for (Map.Entry<String, String> e : staged.entrySet()) {
+            if (!e.getValue().equals(head.get(e.getKey()))) {
+                restored.getToBeAdded().put(e.getKey(), e.getValue());
+            }
+        }
+        for (String file : head.keySet()) {
+            if (!staged.containsKey(file)) {
+                restored.getToBeRemoved().add(file);
+            }
+        }
+        Transaction tx = new Transaction();
+        restored.persistStage(tx);
+        refs().update().delete(ref).commit(tx);
+        tx.commit();
+    }
+
+    /** Returns the file map HEAD with the changes that turned BASE into
+     *  CHANGED applied to it, or null if a changed file differs in HEAD from
+     *  BASE and from CHANGED. */
+    private static HashMap<String, String> replay(HashMap<String, String> base,
+                                                  HashMap<String, String> changed,
+                                                  HashMap<String, String> head) {
+        HashMap<String, String> result = new HashMap<>(head);
+        HashSet<String> files = new HashSet<>(base.keySet());
+        files.addAll(changed.keySet());
+        for (String file : files) {
+            String from = base.get(file);
+            String to = changed.get(file);
+            String current = head.get(file);
+            if (Objects.equals(from, to) || Objects.equals(current, to)) {
+                continue;
+            }
+            if (!Objects.equals(current, from)) {
+                return null;
+            }
+            if (to == null) {
+                result.remove(file);
+            } else {
+                result.put(file, to);
+            }
+        }
+        return result;
+    }
+
+    //======================================================================
+    // Archives
+    //======================================================================
+
+    /** Writes the files of COMMIT, a branch or commit id, to OUT as an
+     *  archive of format FORMAT, "tar" or "zip". */
+    public static void archive(String commit, String format, OutputStream out) {
+        // 0. Check the arguments before anything is written.
+        if (!format.equals("tar") && !format.equals("zip")) {
+            throw error("Unknown archive format %s.", format);
+        }
+        String id = getBranchHead(commit) != null
+                ? getBranchHead(commit) : resolveCommitId(commit);
+        if (id == null) {
+            throw error("No commit with that id exists.");
+        }
+
+        // 1. Refuse paths that would unpack outside the target directory,
+        // which a commit from elsewhere could hold.
+        Commit c = Commit.readCommit(id);
+        for (String path : c.getFiles().keySet()) {
+            if (!path.equals(WorkingTree.relativePath(path))) {
+                throw error("Refusing to archive %s, which is outside the working directory.",
+                        path);
+            }
+        }
+
+        // 2. Date every file with the commit.
+        long mtime;
+        try {
+            mtime = new SimpleDateFormat("E MMM dd hh:mm:ss yyyy Z")
+                    .parse(c.getDate()).getTime();
+        } catch (ParseException excp) {
+            mtime = 0;
+        }
+        Archive.write(c.getFiles(), mtime, format, out);
+    }
+
+    //======================================================================
+    // Bundles
+    //======================================================================
+
+    /** The prefix of the branches unbundle writes, which are never the
+     *  bundle's own branch names so that unbundling never moves the current
+     *  branch. */
+    static final String BUNDLE_PREFIX = "bundle/";
+
+    /** Writes the history of a branch to the bundle FILENAME. SPEC is either
+     *  BRANCH, for its whole history, or BASE..BRANCH, for only the commits
+     *  not reachable from the branch or commit BASE. */
+    public static void bundleCreate(String filename, String spec, boolean compress) {
+        // 0. Parse the range.
+        String base = null;
+        String branch = spec;
+        int dots = spec.indexOf("..");
+        if (dots >= 0) {
+            base = spec.substring(0, dots);
+            branch = spec.substring(dots + 2);
+        }
+        String tip = getBranchHead(branch);
+        if (tip == null) {
+            throw error("A branch with that name does not exist.");
+        }
+
+        // 1. Leave out everything the receiver has if it has BASE.
+        Bundle bundle = new Bundle();
+        Predicate<String> haveCommits = id -> false;
+        Set<String> haveBlobs = Collections.emptySet();
+        if (base != null) {
+            String baseId = getBranchHead(base) != null
+                    ? getBranchHead(base) : resolveCommitId(base);
+            if (baseId == null) {
+                throw error("No commit with that id exists.");
+            }
+            haveCommits = getAncestors(baseId);
+            haveBlobs = new HashSet<>(Commit.readCommit(baseId).getFiles().values());
+            bundle.prerequisites.add(baseId);
+        }
+        Pack.Plan plan = Pack.plan(gitletDir(), tip, haveCommits, haveBlobs::contains);
+        if (plan.commits.isEmpty()) {
+            throw error("Nothing to bundle.");
+        }
+
+        // 2. Stream the objects out.
+        bundle.refs.put(branch, tip);
+        bundle.format = ObjectFormat.current().formatName();
+        bundle.compressed = compress;
+        bundle.write(join(cwd(), filename), gitletDir(), plan);
+    }
+
+    /** Imports the objects in the bundle FILENAME and points the branch
+     *  bundle/BRANCH at the head of each branch BRANCH it carries, creating
+     *  or fast-forwarding it. The current branch is never moved. Returns the
+     *  branches left as they were because the bundle does not fast-forward
+     *  them. */
+    public static List<String> bundleUnbundle(String filename) {
+        File file = join(cwd(), filename);
+        Bundle bundle = file.isFile() ? Bundle.open(file) : null;
+        if (bundle == null) {
+            throw error("Not a gitlet bundle.");
+        }
+
+        // 0. The receiver must use the same object format and already have the
+        // commits the bundle builds on.
+        if (!bundle.format.equals(ObjectFormat.current().formatName())) {
+            bundle.close();
+            throw error("Bundle uses a different object format.");
+        }
+        for (String id : bundle.prerequisites) {
+            if (!Commit.exists(gitletDir(), id)) {
+                bundle.close();
+                throw error("Missing prerequisite commit %s.", id);
+            }
+        }
+
+        // 1. Stream the objects in, and store them before looking at their
+        // history.
+        Transaction tx = new Transaction();
+        try {
+            bundle.readObjects(gitletDir(), tx);
+            tx.commit();
+        } finally {
+            tx.abort();
+        }
+
+        // 2. Create or fast-forward the branches, under bundle/ as fetch
+        // keeps a remote's under its name.
+        String active = getActiveBranch();
+        List<String> skipped = new ArrayList<>();
+        RefTable.Update update = refs().update();
+        for (Map.Entry<String, String> ref : bundle.refs.entrySet()) {
+            String name = BUNDLE_PREFIX + ref.getKey();
+            String old = getBranchHead(name);
+            String id = ref.getValue();
+            if (old == null) {
+                update.set(RefTable.HEADS + name, id);
+            } else if (old.equals(id)) {
+                continue;
+            } else if (name.equals(active) || !isAncestor(old, id)) {
+                skipped.add(name);
+            } else {
+                update.set(RefTable.HEADS + name, id);
+            }
+        }
+        tx = new Transaction();
+        update.commit(tx);
+        tx.commit();
+        return skipped;
     }
 }
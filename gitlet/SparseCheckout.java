@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The directories a sparse checkout keeps in the working directory, listed
+ *  one per line in .gitlet/info/sparse-checkout. A file is checked out if it
+ *  is under one of the directories, or directly in the top directory or in
+ *  a directory above one of them, as in Git's cone mode. Everything else is
+ *  left out of the working directory: never written, hashed or walked.
+ *
+ *  Both questions are answered by looking up each directory above a path in
+ *  a hash set, so neither depends on the number of files in the repository.
+ *  @author Evelyn
+ */
+class SparseCheckout {
+    static File sparseFile() {
+        return join(Repository.gitletDir(), "info", "sparse-checkout");
+    }
+
+    /** The directories, without a trailing /. */
+    private final TreeSet<String> dirs = new TreeSet<>();
+    /** The directories above them, including "" for the top. */
+    private final HashSet<String> parents = new HashSet<>();
+
+    SparseCheckout(Iterable<String> dirs) {
+        parents.add("");
+        for (String d : dirs) {
+            d = normalize(d);
+            if (d.isEmpty()) {
+                continue;
+            }
+            this.dirs.add(d);
+            for (int i = d.indexOf('/'); i > 0; i = d.indexOf('/', i + 1)) {
+                parents.add(d.substring(0, i));
+            }
+        }
+    }
+
+    /** Returns the sparse checkout of the current repository, or null if
+     *  every file is checked out. */
+    static SparseCheckout load() {
+        if (!sparseFile().isFile()) {
+            return null;
+        }
+        return new SparseCheckout(Arrays.asList(
+                readContentsAsString(sparseFile()).split("\r?\n")));
+    }
+
+    /** Returns DIR as it is kept: / separators, no leading ./ and no leading
+     *  or trailing /. */
+    static String normalize(String dir) {
+        String d = dir.strip().replace(File.separatorChar, '/');
+        while (d.startsWith("./")) {
+            d = d.substring(2);
+        }
+        while (d.startsWith("/")) {
+            d = d.substring(1);
+        }
+        while (d.endsWith("/")) {
+            d = d.substring(0, d.length() - 1);
+        }
+        return d;
+    }
+
+    /** Returns the directories, sorted. */
+    TreeSet<String> dirs() {
+        return dirs;
+    }
+
+    /** Returns true if the file PATH is checked out. */
+    boolean includes(String path) {
+        int slash = path.lastIndexOf('/');
+        String parent = slash < 0 ? "" : path.substring(0, slash);
+        return parents.contains(parent) || underDir(parent);
+    }
+
+    /** Returns true if the directory DIR holds checked out files, so that
+     *  it has to be walked. */
+    boolean walks(String dir) {
+        return parents.contains(dir) || underDir(dir);
+    }
+
+    /** Returns true if DIR is one of the directories or below one. */
+    private boolean underDir(String dir) {
+        if (dirs.contains(dir)) {
+            return true;
+        }
+        for (int i = dir.indexOf('/'); i > 0; i = dir.indexOf('/', i + 1)) {
+            if (dirs.contains(dir.substring(0, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -8,7 +8,14 @@ import java.util.LinkedList;
 import static gitlet.Utils.*;
 
 public class Stage implements Serializable {
-    static final File STAGE_PATH = join(Repository.GITLET_DIR, "stage");
+    /** Fixed to the value the class had when repositories were first
+     *  written, so that stored stages stay readable. */
+    private static final long serialVersionUID = -9133373385158896536L;
+
+    static File stagePath() {
+        return join(Repository.gitletDir(), "stage");
+    }
+
     private HashMap<String, String> toBeAdded;
     private LinkedList<String> toBeRemoved;
 
@@ -26,11 +33,16 @@ public class Stage implements Serializable {
     }
 
     public void persistStage() {
-        writeObject(STAGE_PATH, this);
+        writeObject(stagePath(), this);
+    }
+
+    /** Saves this stage as part of TX. */
+    public void persistStage(Transaction tx) {
+        tx.writeObject(stagePath(), this);
     }
 
     public static Stage getStage() {
-        return readObject(STAGE_PATH, Stage.class);
+        return readObject(stagePath(), Stage.class);
     }
 
     public String toString() {
@@ -0,0 +1,74 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters of the work one gitlet command does, for the performance tests
+ *  in testing/perf.py. They are only reported when the system property
+ *  gitlet.stats names a file: when the command exits, one line of JSON is
+ *  appended to it with the command's run time, the bytes it read and
+ *  wrote, and how many commits and other objects it deserialized.
+ *
+ *  Bytes are counted where gitlet reads and writes the files of the
+ *  repository and working directory, not at the system calls: the JDK
+ *  reads time zone, locale and security data lazily, hundreds of kilobytes
+ *  that would drown the repository's own.
+ *  @author Evelyn
+ */
+class Stats {
+    static final String PROPERTY = "gitlet.stats";
+
+    private static final LongAdder COMMITS = new LongAdder();
+    private static final LongAdder OBJECTS = new LongAdder();
+    private static final LongAdder BYTES_READ = new LongAdder();
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+
+    /** Counts a commit deserialized. */
+    static void commitRead() {
+        COMMITS.increment();
+    }
+
+    /** Counts an object other than a commit deserialized. */
+    static void objectRead() {
+        OBJECTS.increment();
+    }
+
+    /** Counts N bytes read from the repository or working directory. */
+    static void read(long n) {
+        BYTES_READ.add(n);
+    }
+
+    /** Counts N bytes written to the repository or working directory. */
+    static void written(long n) {
+        BYTES_WRITTEN.add(n);
+    }
+
+    /** Arranges for the counters of this process to be reported when it
+     *  exits, if gitlet.stats is set. COMMAND names what it runs. */
+    static void reportOnExit(String command) {
+        String path = System.getProperty(PROPERTY);
+        if (path == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> report(new File(path),
+                command, (System.nanoTime() - start) / 1_000_000)));
+    }
+
+    private static void report(File file, String command, long millis) {
+        String line = String.format("{\"command\": \"%s\", \"millis\": %d, \"bytesRead\": %d, "
+                + "\"bytesWritten\": %d, \"commitsRead\": %d, \"objectsRead\": %d}%n",
+                command.replace("\\", "\\\\").replace("\"", "\\\""), millis,
+                BYTES_READ.sum(), BYTES_WRITTEN.sum(), COMMITS.sum(), OBJECTS.sum());
+        try {
+            Files.write(file.toPath(), line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            // Nothing to report to at exit.
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/** The state of a repository as status shows it. Every list is sorted.
+ *  @author Evelyn
+ */
+public class Status {
+    private final String currentBranch;
+    private final List<String> branches;
+    private final List<String> staged;
+    private final List<String> removed;
+    private final SortedMap<String, String> modifications;
+    private final List<String> untracked;
+
+    Status(String currentBranch, List<String> branches, List<String> staged,
+           List<String> removed, SortedMap<String, String> modifications,
+           List<String> untracked) {
+        this.currentBranch = currentBranch;
+        this.branches = Collections.unmodifiableList(branches);
+        this.staged = Collections.unmodifiableList(staged);
+        this.removed = Collections.unmodifiableList(removed);
+        this.modifications = Collections.unmodifiableSortedMap(modifications);
+        this.untracked = Collections.unmodifiableList(untracked);
+    }
+
+    public String getCurrentBranch() {
+        return currentBranch;
+    }
+
+    /** Returns every branch, the current one included. */
+    public List<String> getBranches() {
+        return branches;
+    }
+
+    /** Returns the files staged for addition. */
+    public List<String> getStaged() {
+        return staged;
+    }
+
+    /** Returns the files staged for removal. */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /** Returns the tracked files whose working copies differ from what would
+     *  be committed, each mapped to "modified" or "deleted". */
+    public SortedMap<String, String> getModifications() {
+        return modifications;
+    }
+
+    public List<String> getUntracked() {
+        return untracked;
+    }
+
+    /** Returns the output of status. */
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append("=== Branches ===\n");
+        str.append("*").append(currentBranch).append("\n");
+        for (String branch : branches) {
+            if (!branch.equals(currentBranch)) {
+                str.append(branch).append("\n");
+            }
+        }
+        str.append("\n").append("=== Staged Files ===\n");
+        for (String file : staged) {
+            str.append(file).append("\n");
+        }
+        str.append("\n").append("=== Removed Files ===\n");
+        for (String file : removed) {
+            str.append(file).append("\n");
+        }
+        str.append("\n").append("=== Modifications Not Staged For Commit ===\n");
+        for (Map.Entry<String, String> e : modifications.entrySet()) {
+            str.append(e.getKey()).append(" (").append(e.getValue()).append(")\n");
+        }
+        str.append("\n").append("=== Untracked Files ===\n");
+        for (String file : untracked) {
+            str.append(file).append("\n");
+        }
+        return str.toString();
+    }
+}
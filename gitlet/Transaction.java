@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A group of writes to a .gitlet directory that take effect together. Each
+ *  write goes to a temporary file first; commit then makes the contents
+ *  durable and renames every file into place, in the order the writes were
+ *  made. Callers write objects before the stage and refs that point to them,
+ *  so a crash can leave unused objects behind but never a ref to a missing
+ *  or half-written object. A command that fails after writing aborts, which
+ *  deletes its temporary files; the prune task of maintenance deletes any a
+ *  crash left behind.
+ *
+ *  How much is forced to disk is set by core.durability:
+ *  none (rename only), batch (force all files, rename all, then force each
+ *  directory once) or strict (force, rename and force the directory for each
+ *  file in turn).
+ *  @author Evelyn
+ */
+class Transaction {
+    /** Config key for the durability level. */
+    static final String CONFIG_KEY = "core.durability";
+
+    /** How much a commit forces to disk. */
+    enum Durability {
+        NONE, BATCH, STRICT;
+
+        /** Returns the level named NAME, ignoring case, or null. */
+        static Durability forName(String name) {
+            for (Durability d : values()) {
+                if (d.name().equalsIgnoreCase(name)) {
+                    return d;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final File tmpFolder;
+    private final Durability durability;
+    /** Temporary files, in write order. */
+    private final List<File> temps = new ArrayList<>();
+    /** Where each temporary file goes. */
+    private final List<File> targets = new ArrayList<>();
+    /** Files to delete after the renames. */
+    private final List<File> deletions = new ArrayList<>();
+
+    /** A transaction on the current repository, at its configured level. */
+    Transaction() {
+        this(Repository.gitletDir());
+    }
+
+    /** A transaction on the repository whose .gitlet directory is GITLETDIR,
+     *  at that repository's configured level. */
+    Transaction(File gitletDir) {
+        this(gitletDir, configured(gitletDir));
+    }
+
+    /** A transaction on the repository whose .gitlet directory is GITLETDIR,
+     *  at level DURABILITY. */
+    Transaction(File gitletDir, Durability durability) {
+        this.tmpFolder = join(gitletDir, "tmp");
+        this.durability = durability;
+    }
+
+    private static Durability configured(File gitletDir) {
+        Durability d = Durability.forName(Config.get(gitletDir, CONFIG_KEY, "batch"));
+        return d == null ? Durability.BATCH : d;
+    }
+
+    /** Arranges for FILE to hold the concatenation of CONTENTS, each a String
+     *  or byte array, when this transaction commits. */
+    void write(File file, Object... contents) {
+        tmpFolder.mkdirs();
+        try {
+            File tmp = File.createTempFile("write", null, tmpFolder);
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                for (Object obj : contents) {
+                    byte[] b = obj instanceof byte[]
+                            ? (byte[]) obj : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                    out.write(b);
+                    Stats.written(b.length);
+                }
+            }
+            temps.add(tmp);
+            targets.add(file);
+        } catch (IOException | ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Arranges for FILE to hold the serialized OBJ when this transaction
+     *  commits. */
+    void writeObject(File file, Serializable obj) {
+        write(file, serialize(obj));
+    }
+
+    /** Returns the contents last written to FILE in this transaction, or null
+     *  if it has none. */
+    byte[] pending(File file) {
+        int i = targets.lastIndexOf(file);
+        return i < 0 ? null : readContents(temps.get(i));
+    }
+
+    /** Arranges for FILE to be deleted when this transaction commits. */
+    void delete(File file) {
+        deletions.add(file);
+    }
+
+    /** Drops every write and deletion not yet committed, deleting their
+     *  temporary files. Does nothing after a commit, so callers can abort in
+     *  a finally block. */
+    void abort() {
+        for (File tmp : temps) {
+            tmp.delete();
+        }
+        temps.clear();
+        targets.clear();
+        deletions.clear();
+    }
+
+    /** Makes every write and deletion take effect. If that fails partway,
+     *  the temporary files not yet renamed are deleted. */
+    void commit() {
+        int renamed = 0;
+        try {
+            LinkedHashSet<File> dirs = new LinkedHashSet<>();
+            if (durability == Durability.BATCH) {
+                for (File tmp : temps) {
+                    force(tmp.toPath(), false);
+                }
+            }
+            for (int i = 0; i < temps.size(); i += 1) {
+                File target = targets.get(i);
+                target.getParentFile().mkdirs();
+                if (durability == Durability.STRICT) {
+                    force(temps.get(i).toPath(), false);
+                }
+                Files.move(temps.get(i).toPath(), target.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                renamed += 1;
+                if (durability == Durability.STRICT) {
+                    force(target.getParentFile().toPath(), true);
+                } else {
+                    dirs.add(target.getParentFile());
+                }
+            }
+            for (File f : deletions) {
+                Files.deleteIfExists(f.toPath());
+                dirs.add(f.getParentFile());
+            }
+            if (durability != Durability.NONE) {
+                for (File dir : dirs) {
+                    force(dir.toPath(), true);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            temps.subList(0, renamed).clear();
+            abort();
+        }
+    }
+
+    /** Forces the file or directory at PATH to disk. Some platforms cannot
+     *  open directories, in which case they are skipped. */
+    private static void force(Path path, boolean directory) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            if (!directory) {
+                throw excp;
+            }
+        }
+    }
+}
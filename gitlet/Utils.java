@@ -12,10 +12,7 @@ import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -28,7 +25,8 @@ import java.util.List;
  */
 class Utils {
 
-    /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
+    /** The length of a complete SHA-1 UID as a hexadecimal numeral. Use
+     *  ObjectFormat.hexLength for the ids of the current repository. */
     static final int UID_LENGTH = 40;
 
     /* SHA-1 HASH VALUES. */
@@ -36,25 +34,14 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
-        }
+        return ObjectFormat.SHA1.hash(vals).hex();
+    }
+
+    /** Returns the id, in the current repository's object format, of the
+     *  concatenation of VALS, which may be any mixture of byte arrays and
+     *  Strings. */
+    static String hashObject(Object... vals) {
+        return ObjectFormat.current().hash(vals).hex();
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -98,7 +85,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] contents = Files.readAllBytes(file.toPath());
+            Stats.read(contents.length);
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -126,8 +115,11 @@ class Utils {
             for (Object obj : contents) {
                 if (obj instanceof byte[]) {
                     str.write((byte[]) obj);
+                    Stats.written(((byte[]) obj).length);
                 } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
+                    byte[] b = ((String) obj).getBytes(StandardCharsets.UTF_8);
+                    str.write(b);
+                    Stats.written(b.length);
                 }
             }
             str.close();
@@ -140,6 +132,8 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        Stats.objectRead();
+        Stats.read(file.length());
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
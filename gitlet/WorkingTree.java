@@ -0,0 +1,453 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/** One scan of the working directory, with the stage and the head commit's
+ *  files alongside it, so that status and the safety checks before checkout,
+ *  reset and merge answer membership questions with hash lookups instead of
+ *  list searches. File contents are hashed only when a comparison needs
+ *  them, in parallel, and each file at most once per scan.
+ *
+ *  Files are named by their paths relative to the working directory, with
+ *  / separators. The walk skips whatever {@link IgnoreRules} ignores without
+ *  descending into ignored directories, and walks subdirectories in
+ *  parallel. Tracked files are never treated as ignored.
+ *
+ *  In a sparse checkout (see {@link SparseCheckout}), files outside the
+ *  checkout are not walked, and tracked files outside it are neither
+ *  looked for, reported as deleted, nor written.
+ *
+ *  Checked out files are made from blobs as {@link Materialize} describes.
+ *
+ *  When the file system monitor is running (see {@link FsMonitor}), the
+ *  file list and the hashes of files that have not changed since the last
+ *  scan are taken from that scan instead.
+ *  @author Evelyn
+ */
+class WorkingTree {
+    /** Config key for how checked out files are made. */
+    static final String MATERIALIZE_KEY = "checkout.materialize";
+
+    /** How a checked out file is made from its blob, which is stored as is
+     *  in .gitlet/objects. */
+    enum Materialize {
+        /** Read the blob and write the file. */
+        COPY,
+        /** Copy in the kernel with FileChannel.transferTo, which file
+         *  systems with reflinks can turn into sharing the blob's extents. */
+        CLONE,
+        /** Hard-link the file to the blob. The blob is made read-only first,
+         *  so the file is too and cannot be edited in place; gitlet itself
+         *  always replaces a working file instead of writing into it, which
+         *  breaks the link. Falls back to CLONE where links are not possible
+         *  or read-only files would not stop writes. */
+        LINK;
+
+        /** Returns the mode named NAME, ignoring case, or null. */
+        static Materialize forName(String name) {
+            for (Materialize m : values()) {
+                if (m.name().equalsIgnoreCase(name)) {
+                    return m;
+                }
+            }
+            return null;
+        }
+
+        /** Returns the mode configured for the current repository. */
+        static Materialize configured() {
+            Materialize m = forName(Config.get(MATERIALIZE_KEY, "copy"));
+            return m == null ? COPY : m;
+        }
+    }
+
+    /** The files in the working directory, sorted. */
+    private final TreeSet<String> files;
+    private final Stage stage;
+    /** The files of the head commit. */
+    private final HashMap<String, String> head;
+    /** Blob ids of working files hashed so far. */
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+    /** The monitor token this scan is valid for, or null. */
+    private final String token;
+    /** The sparse checkout, or null if every file is checked out. */
+    private final SparseCheckout sparse;
+
+    private WorkingTree(TreeSet<String> files, Stage stage, HashMap<String, String> head,
+                        String token, SparseCheckout sparse) {
+        this.files = files;
+        this.stage = stage;
+        this.head = head;
+        this.token = token;
+        this.sparse = sparse;
+    }
+
+    /** Returns a scan of the current working directory. */
+    static WorkingTree scan() {
+        Stage stage = Stage.getStage();
+        HashMap<String, String> head = Commit.readCommit(Commit.getCurrentCommitId()).getFiles();
+        SparseCheckout sparse = SparseCheckout.load();
+        FsMonitor.State known = FsMonitor.refresh();
+        WorkingTree tree;
+        if (known != null) {
+            tree = new WorkingTree(known.files, stage, head, known.token, sparse);
+            tree.hashes.putAll(known.hashes);
+        } else {
+            tree = new WorkingTree(new TreeSet<>(listFiles(sparse)), stage, head, null, sparse);
+        }
+
+        // Tracked files count even where the ignore rules would skip them.
+        for (String file : head.keySet()) {
+            tree.addTracked(file);
+        }
+        for (String file : stage.getToBeAdded().keySet()) {
+            tree.addTracked(file);
+        }
+        return tree;
+    }
+
+    private void addTracked(String file) {
+        if (!files.contains(file) && checkedOut(file)
+                && join(Repository.cwd(), file).isFile()) {
+            files.add(file);
+        }
+    }
+
+    /** Returns true if FILE belongs in the working directory, that is, it is
+     *  not left out by the sparse checkout. */
+    boolean checkedOut(String file) {
+        return sparse == null || sparse.includes(file);
+    }
+
+    /** Returns the paths of the files under the working directory that are
+     *  neither ignored nor outside the sparse checkout, in no particular
+     *  order. */
+    static List<String> listFiles() {
+        return listFiles(SparseCheckout.load());
+    }
+
+    private static List<String> listFiles(SparseCheckout sparse) {
+        return walk(Repository.cwd(), "", IgnoreRules.load(), sparse);
+    }
+
+    private static List<String> walk(File dir, String prefix, IgnoreRules rules,
+                                     SparseCheckout sparse) {
+        File[] entries = dir.listFiles();
+        List<String> files = new ArrayList<>();
+        if (entries == null) {
+            return files;
+        }
+        List<File> subdirs = new ArrayList<>();
+        for (File e : entries) {
+            String path = prefix + e.getName();
+            if (e.isDirectory()) {
+                if (!Files.isSymbolicLink(e.toPath()) && !rules.matches(path, true)
+                        && (sparse == null || sparse.walks(path))) {
+                    subdirs.add(e);
+                }
+            } else if (e.isFile() && !rules.matches(path, false)) {
+                files.add(path);
+            }
+        }
+        subdirs.parallelStream()
+                .map(d -> walk(d, prefix + d.getName() + "/", rules, sparse))
+                .forEachOrdered(files::addAll);
+        return files;
+    }
+
+    /** Keeps the file list and hashes of this scan for the next one, if the
+     *  file system monitor is running. */
+    void save() {
+        if (token != null) {
+            FsMonitor.save(new FsMonitor.State(token, files, new HashMap<>(hashes)));
+        }
+    }
+
+    Stage stage() {
+        return stage;
+    }
+
+    /** Returns the files of the head commit. */
+    HashMap<String, String> head() {
+        return head;
+    }
+
+    /** Returns true if FILE is in the working directory. */
+    boolean contains(String file) {
+        return files.contains(file);
+    }
+
+    /** Returns the working files that are neither staged for addition nor
+     *  tracked in the head commit, sorted. */
+    List<String> untracked() {
+        List<String> untracked = new ArrayList<>();
+        for (String file : files) {
+            if (!stage.getToBeAdded().containsKey(file) && !head.containsKey(file)) {
+                untracked.add(file);
+            }
+        }
+        return untracked;
+    }
+
+    /** Returns the blob id of working file FILE, or null if there is none. */
+    String hash(String file) {
+        if (!files.contains(file)) {
+            return null;
+        }
+        return hashes.computeIfAbsent(file,
+                f -> hashObject(LargeFiles.blob(new File(Repository.cwd(), f))));
+    }
+
+    /** Hashes the working files among NAMES that are not hashed yet, in
+     *  parallel. */
+    void hashAll(Collection<String> names) {
+        List<String> todo = new ArrayList<>();
+        for (String file : names) {
+            if (files.contains(file) && !hashes.containsKey(file)) {
+                todo.add(file);
+            }
+        }
+        todo.parallelStream().forEach(GitletRepository.bind(this::hash));
+    }
+
+    /** Returns the tracked files whose working copies differ from what would
+     *  be committed, each mapped to "modified" or "deleted", sorted. */
+    TreeMap<String, String> modifications() {
+        HashMap<String, String> toBeAdded = stage.getToBeAdded();
+        HashSet<String> toBeRemoved = new HashSet<>(stage.getToBeRemoved());
+        hashAll(toBeAdded.keySet());
+        hashAll(head.keySet());
+
+        TreeMap<String, String> modified = new TreeMap<>();
+        // 0. Staged for addition, but deleted or modified in CWD.
+        for (Map.Entry<String, String> e : toBeAdded.entrySet()) {
+            if (!files.contains(e.getKey())) {
+                if (checkedOut(e.getKey())) {
+                    modified.put(e.getKey(), "deleted");
+                }
+            } else if (!hash(e.getKey()).equals(e.getValue())) {
+                modified.put(e.getKey(), "modified");
+            }
+        }
+        // 1. Tracked in head, changed in CWD but not staged for addition, or
+        // deleted from CWD but not staged for removal.
+        for (Map.Entry<String, String> e : head.entrySet()) {
+            String file = e.getKey();
+            if (files.contains(file)) {
+                if (!toBeAdded.containsKey(file) && !hash(file).equals(e.getValue())) {
+                    modified.put(file, "modified");
+                }
+            } else if (!toBeRemoved.contains(file) && checkedOut(file)) {
+                modified.put(file, "deleted");
+            }
+        }
+        return modified;
+    }
+
+    /** Returns the changes that turn this working directory into a checkout
+     *  of the file map TARGET: tracked or staged files TARGET lacks are
+     *  removed, and files whose contents differ from TARGET's are written.
+     *  Files outside the sparse checkout are left out. */
+    Stage changesTo(HashMap<String, String> target) {
+        hashAll(target.keySet());
+        Stage changes = new Stage();
+        HashSet<String> tracked = new HashSet<>(head.keySet());
+        tracked.addAll(stage.getToBeAdded().keySet());
+        for (String file : tracked) {
+            if (!target.containsKey(file) && files.contains(file)) {
+                changes.getToBeRemoved().add(file);
+            }
+        }
+        for (Map.Entry<String, String> e : target.entrySet()) {
+            if (checkedOut(e.getKey()) && !e.getValue().equals(hash(e.getKey()))) {
+                changes.getToBeAdded().put(e.getKey(), e.getValue());
+            }
+        }
+        return changes;
+    }
+
+    /** Applies CHANGES to the working directory in one pass: the blobs to
+     *  check out are read in parallel, then every file is written or deleted
+     *  in parallel. Files outside the sparse checkout are skipped. Blobs not
+     *  yet committed are read from TX, which may be null. */
+    static void write(Stage changes, Transaction tx) {
+        SparseCheckout sparse = SparseCheckout.load();
+        if (sparse != null) {
+            Stage kept = new Stage();
+            for (Map.Entry<String, String> e : changes.getToBeAdded().entrySet()) {
+                if (sparse.includes(e.getKey())) {
+                    kept.getToBeAdded().put(e.getKey(), e.getValue());
+                }
+            }
+            for (String file : changes.getToBeRemoved()) {
+                if (sparse.includes(file)) {
+                    kept.getToBeRemoved().add(file);
+                }
+            }
+            changes = kept;
+        }
+        apply(changes, tx);
+    }
+
+    /** Like {@link #write}, but writes files outside the sparse checkout
+     *  too. */
+    static void apply(Stage changes, Transaction tx) {
+        Materialize mode = Materialize.configured();
+        if (mode != Materialize.COPY) {
+            changes.getToBeRemoved().parallelStream()
+                    .forEach(GitletRepository.bind(WorkingTree::delete));
+            changes.getToBeAdded().entrySet().parallelStream().forEach(GitletRepository.bind(e -> {
+                File blob = join(Repository.objectsFolder(), e.getValue());
+                byte[] pending = tx == null ? null : tx.pending(blob);
+                if (pending != null) {
+                    createBlob(e.getKey(), pending, mode);
+                } else {
+                    materialize(e.getKey(), blob, mode);
+                }
+            }));
+            return;
+        }
+        Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+        new HashSet<>(changes.getToBeAdded().values()).parallelStream()
+                .forEach(GitletRepository.bind(id -> {
+                    File blob = join(Repository.objectsFolder(), id);
+                    byte[] pending = tx == null ? null : tx.pending(blob);
+                    blobs.put(id, pending != null ? pending : readContents(blob));
+                }));
+        changes.getToBeRemoved().parallelStream()
+                .forEach(GitletRepository.bind(WorkingTree::delete));
+        changes.getToBeAdded().entrySet().parallelStream().forEach(GitletRepository.bind(e ->
+                createBlob(e.getKey(), blobs.get(e.getValue()), mode)));
+    }
+
+    /** Writes the blob CONTENTS to the working file PATH, or, if CONTENTS
+     *  are a large-file pointer that is to be fetched, the contents it
+     *  points to, made as MODE says (or cloned, rather than read whole). */
+    private static void createBlob(String path, byte[] contents, Materialize mode) {
+        File large = LargeFiles.fetch(path, contents);
+        if (large == null) {
+            create(path, contents);
+        } else {
+            materialize(path, large, mode == Materialize.COPY ? Materialize.CLONE : mode);
+        }
+    }
+
+    /** Writes CONTENTS to the working file PATH, creating its directories.
+     *  An existing file is replaced, not written into, as it may be a link
+     *  to a blob. */
+    static void create(String path, byte[] contents) {
+        File f = replace(path);
+        writeContents(f, (Object) contents);
+    }
+
+    /** Makes the working file PATH a copy of blob ID, in the configured
+     *  way. */
+    static void checkOut(String path, String id) {
+        materialize(path, join(Repository.objectsFolder(), id), Materialize.configured());
+    }
+
+    private static void materialize(String path, File blob, Materialize mode) {
+        if (mode == Materialize.COPY || LargeFiles.mayBePointer(blob)) {
+            byte[] contents = readContents(blob);
+            if (mode == Materialize.COPY || LargeFiles.pointedTo(contents) != null) {
+                createBlob(path, contents, mode);
+                return;
+            }
+        }
+        File f = replace(path);
+        try {
+            if (mode == Materialize.LINK) {
+                // A process that can write read-only files (like root's)
+                // could write through the link, so it gets a clone.
+                blob.setWritable(false, false);
+                if (!blob.canWrite()) {
+                    try {
+                        Files.createLink(f.toPath(), blob.toPath());
+                        return;
+                    } catch (IOException | UnsupportedOperationException excp) {
+                        Files.deleteIfExists(f.toPath());
+                    }
+                }
+            }
+            try (FileChannel in = FileChannel.open(blob.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(f.toPath(), StandardOpenOption.CREATE_NEW,
+                         StandardOpenOption.WRITE)) {
+                long size = in.size();
+                for (long pos = 0; pos < size; ) {
+                    pos += in.transferTo(pos, size - pos, out);
+                }
+                Stats.read(size);
+                Stats.written(size);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns FILENAME, relative to the working directory or absolute, as
+     *  a normalized path relative to the working directory with /
+     *  separators, or null if it is the working directory itself or lies
+     *  outside it. */
+    static String relativePath(String filename) {
+        Path root = Repository.cwd().toPath().toAbsolutePath().normalize();
+        Path p = root.resolve(filename).normalize();
+        if (!p.startsWith(root) || p.equals(root)) {
+            return null;
+        }
+        return root.relativize(p).toString().replace(File.separatorChar, '/');
+    }
+
+    /** Returns the working file PATH, a path from a commit or the stage.
+     *  Refuses paths that would lead outside the working directory, which
+     *  a commit from elsewhere could hold. */
+    private static File workingFile(String path) {
+        if (!path.equals(relativePath(path))) {
+            throw error("Refusing to write %s, which is outside the working directory.", path);
+        }
+        return join(Repository.cwd(), path);
+    }
+
+    /** Makes way for a new working file PATH: creates its directories and
+     *  deletes the file if it exists. */
+    private static File replace(String path) {
+        File f = workingFile(path);
+        f.getParentFile().mkdirs();
+        try {
+            Files.deleteIfExists(f.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return f;
+    }
+
+    /** Deletes the working file PATH, and then any directories above it that
+     *  are left empty. */
+    static void delete(String path) {
+        File f = workingFile(path);
+        if (!f.isFile() || !f.delete()) {
+            return;
+        }
+        for (File dir = f.getParentFile(); !dir.equals(Repository.cwd());
+             dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+}
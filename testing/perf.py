@@ -0,0 +1,219 @@
+"""Performance regression tests for gitlet.
+
+Usage: python3 perf.py [--scale=S] [--margin=M] [--time-margin=T]
+                       [--baseline=FILE] [--update] [--keep] [SCENARIO.in ...]
+
+Runs each scenario (by default every perf/*.in) in a fresh directory and
+adds up, over all the gitlet commands it runs, the metrics gitlet reports
+when run with -Dgitlet.stats (see gitlet/Stats.java):
+
+    millis        wall time spent in gitlet, without JVM start-up
+    bytesRead     bytes of repository and working files read
+    bytesWritten  bytes of repository and working files written
+    commitsRead   commits deserialized
+    objectsRead   other objects deserialized (stage and the like)
+
+A scenario fails if any metric exceeds the one stored for it in the
+baseline file (default perf-baseline.json) by more than the margin: M for
+the counts (default 0.10, i.e. 10%) and T for wall time, which is noisier
+(default 0.50).  With --update, the baseline is rewritten from this run
+instead; wall times in it are only meaningful on the machine that wrote it.
+
+Scenarios use the format of the integration tests' .in files, minus the
+expected output, which is not checked here:
+
+    # ...            A comment.
+    > COMMAND ARGS   Runs java gitlet.Main COMMAND ARGS. Arguments are split
+                     as a shell would.
+    + NAME F         Copies src/F to NAME.
+    - NAME           Deletes NAME.
+    I FILE           Includes the scenario FILE.
+
+and two lines of their own, for scaling them:
+
+    ~ NAME TEXT      Writes TEXT and a newline to NAME.
+    % COUNT          Repeats the lines up to the next lone %, COUNT times the
+                     scale, with ${i} replaced by 1, 2, ... in each copy.
+                     ${N} anywhere is the number of copies.
+
+The metrics grow with the scale (default 1), so a baseline only applies at
+the scale it was written at.
+
+Java is run with the CLASSPATH of the environment, as tester.py does.
+"""
+
+import getopt
+import json
+import os
+import re
+import shlex
+import shutil
+import subprocess
+import sys
+import tempfile
+import time
+
+METRICS = ("millis", "bytesRead", "bytesWritten", "commitsRead", "objectsRead")
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+SRC = os.path.join(HERE, "src")
+
+
+def usage():
+    print(__doc__, file=sys.stderr)
+    sys.exit(1)
+
+
+def expand(path, scale):
+    """Returns the lines of scenario PATH with includes and repeats expanded,
+    as (line number, line) pairs."""
+    with open(path) as f:
+        raw = f.read().splitlines()
+    out = []
+    i = 0
+    while i < len(raw):
+        line = raw[i].strip()
+        i += 1
+        if line.startswith("%"):
+            count = int(line[1:].strip()) * scale
+            block = []
+            while i < len(raw) and raw[i].strip() != "%":
+                block.append((i + 1, raw[i].strip()))
+                i += 1
+            if i == len(raw):
+                raise ValueError("{}: unterminated %".format(path))
+            i += 1
+            for n in range(1, count + 1):
+                for num, text in block:
+                    out.append((num, text.replace("${i}", str(n))
+                                .replace("${N}", str(count))))
+        elif line.startswith("I "):
+            name = os.path.join(os.path.dirname(path), line[2:].strip())
+            out.extend(expand(name, scale))
+        else:
+            out.append((i, line))
+    return out
+
+
+def run_scenario(path, scale, keep):
+    """Runs scenario PATH at SCALE and returns its summed metrics."""
+    workdir = tempfile.mkdtemp(prefix="gitlet-perf-")
+    stats = os.path.join(workdir, "stats.jsonl")
+    repo = os.path.join(workdir, "repo")
+    os.mkdir(repo)
+    try:
+        for num, line in expand(path, scale):
+            if not line or line.startswith("#"):
+                continue
+            kind, _, rest = line.partition(" ")
+            if kind == ">":
+                cmd = ["java", "-Dgitlet.stats=" + stats, "gitlet.Main"] \
+                    + shlex.split(rest)
+                result = subprocess.run(cmd, cwd=repo, stdout=subprocess.PIPE,
+                                        stderr=subprocess.STDOUT)
+                if result.returncode != 0:
+                    raise RuntimeError("{}:{}: {} exited with {}:\n{}".format(
+                        path, num, rest, result.returncode,
+                        result.stdout.decode(errors="replace")))
+            elif kind == "+":
+                name, src = rest.split()
+                shutil.copyfile(os.path.join(SRC, src), os.path.join(repo, name))
+            elif kind == "-":
+                os.remove(os.path.join(repo, rest.strip()))
+            elif kind == "~":
+                name, _, text = rest.partition(" ")
+                target = os.path.join(repo, name)
+                os.makedirs(os.path.dirname(target), exist_ok=True)
+                with open(target, "w") as f:
+                    f.write(text + "\n")
+            else:
+                raise ValueError("{}:{}: unknown line: {}".format(path, num, line))
+
+        totals = dict.fromkeys(METRICS, 0)
+        with open(stats) as f:
+            for record in map(json.loads, f):
+                for m in METRICS:
+                    totals[m] += record[m]
+        return totals
+    finally:
+        if keep:
+            print("  kept {}".format(workdir))
+        else:
+            shutil.rmtree(workdir, ignore_errors=True)
+
+
+def compare(name, got, base, margin, time_margin):
+    """Returns the lines describing metrics in GOT over those in BASE."""
+    over = []
+    for m in METRICS:
+        if m not in base:
+            continue
+        allowed = base[m] * (1 + (time_margin if m == "millis" else margin))
+        if got[m] > allowed:
+            over.append("  {}: {} {} > {} (baseline {})".format(
+                name, m, got[m], int(allowed), base[m]))
+    return over
+
+
+def main():
+    try:
+        opts, args = getopt.getopt(sys.argv[1:], "",
+                                   ["scale=", "margin=", "time-margin=",
+                                    "baseline=", "update", "keep"])
+    except getopt.GetoptError:
+        usage()
+    opts = dict(opts)
+    scale = int(opts.get("--scale", 1))
+    margin = float(opts.get("--margin", 0.10))
+    time_margin = float(opts.get("--time-margin", 0.50))
+    baseline_path = opts.get("--baseline", os.path.join(HERE, "perf-baseline.json"))
+    update = "--update" in opts
+    scenarios = args or sorted(
+        os.path.join(HERE, "perf", f) for f in os.listdir(os.path.join(HERE, "perf"))
+        if f.endswith(".in"))
+
+    baseline = {"scale": scale, "scenarios": {}}
+    if os.path.exists(baseline_path):
+        with open(baseline_path) as f:
+            baseline = json.load(f)
+    if not update and baseline["scale"] != scale:
+        print("Baseline was written at scale {}, not {}.".format(
+            baseline["scale"], scale), file=sys.stderr)
+        sys.exit(1)
+
+    failed = []
+    for path in scenarios:
+        name = re.sub(r"\.in$", "", os.path.basename(path))
+        start = time.time()
+        got = run_scenario(path, scale, "--keep" in opts)
+        print("{}: {} ({:.1f}s)".format(
+            name, ", ".join("{} {}".format(m, got[m]) for m in METRICS),
+            time.time() - start))
+        if update:
+            baseline["scenarios"][name] = got
+            continue
+        base = baseline["scenarios"].get(name)
+        if base is None:
+            print("  {}: no baseline".format(name))
+            continue
+        over = compare(name, got, base, margin, time_margin)
+        for line in over:
+            print(line)
+        if over:
+            failed.append(name)
+
+    if update:
+        baseline["scale"] = scale
+        with open(baseline_path, "w") as f:
+            json.dump(baseline, f, indent=2, sort_keys=True)
+            f.write("\n")
+        print("Wrote {}.".format(baseline_path))
+    elif failed:
+        print("Slower than the baseline: {}.".format(", ".join(failed)))
+        sys.exit(1)
+    else:
+        print("No regressions.")
+
+
+if __name__ == "__main__":
+    main()